@@ -0,0 +1,180 @@
+package org.apereo.portal.start.data
+
+import org.apereo.portal.start.shell.PortalShellInvoker
+
+/**
+ * Writes a PortalShell script that exports several entity types concurrently into a zip archive
+ * that dataImport -Darchive={path} accepts.
+ *
+ * Each type is exported by a worker thread into its own working directory, with its own log
+ * directory.  As soon as its export is done the worker zips the type's files into a zip of their
+ * own, deleting each file once it is in, so that exported types wait for their turn compressed.
+ * The script copies the types' zips into the archive one at a time, in dependency order, while
+ * later types are still being exported;  only one buffer per thread is needed however many
+ * entities there are.  Optionally the archive is split into shards of roughly a given number of
+ * entities.  A type is never split across shards, so importing the shards in order imports every
+ * type after the types it depends on.
+ */
+class DataExportArchive {
+
+    /** Entity types exported when none are specified */
+    static final List<String> DEFAULT_TYPES = [
+            'portlet-type',
+            'stylesheet-descriptor',
+            'permission_owner',
+            'pags-group',
+            'group_membership',
+            'portlet-definition',
+            'user',
+            'fragment-definition',
+            'profile',
+            'fragment-layout',
+            'layout',
+            'permission_set'
+    ].asImmutable()
+
+    /** Entity types to export, sorted into dependency order */
+    final List<String> types
+
+    /** Archive to write;  shards are named after it with their number before the extension */
+    final File archive
+
+    /** Approximate number of entities per shard, 0 for a single archive */
+    final int shardSize
+
+    DataExportArchive(Collection<String> types, File archive, int shardSize) {
+        this.types = DataImportPlan.sortTypes(types)
+        this.archive = archive
+        this.shardSize = shardSize
+    }
+
+    /**
+     * @param scriptFile Script to write
+     * @param workDir Directory the workers export into, emptied first
+     * @param threads Number of types exported at the same time
+     * @param logDir Directory the export writes its logs to, in a subdirectory per type
+     */
+    void writeScript(File scriptFile, File workDir, int threads, String logDir) {
+        workDir.deleteDir()
+        workDir.mkdirs()
+        archive.absoluteFile.parentFile.mkdirs()
+
+        String typesSource = types.collect { "'${it}'" }.join(', ')
+        String workDirEscaped = PortalShellInvoker.createGroovySafePath(workDir.absolutePath)
+        String archiveDirEscaped = PortalShellInvoker.createGroovySafePath(archive.absoluteFile.parentFile.path)
+        String archiveName = archive.name
+        int extension = archiveName.lastIndexOf('.')
+        String shardPrefix = extension > 0 ? archiveName.substring(0, extension) : archiveName
+        String shardSuffix = extension > 0 ? archiveName.substring(extension) : ''
+
+        // Runs in the PortalShell, so only the JDK and the portalShellBuildHelper are available
+        scriptFile.write(
+"""
+def exportTypes = [${typesSource}]
+def exportWorkDir = new File('${workDirEscaped}')
+def shardSize = ${shardSize}
+def shardFile = { int shard ->
+    shardSize > 0 ? new File('${archiveDirEscaped}', "${shardPrefix}-\${shard}${shardSuffix}") : new File('${archiveDirEscaped}', '${archiveName}')
+}
+
+def exportStart = System.nanoTime()
+def exportExecutor = java.util.concurrent.Executors.newFixedThreadPool(${threads})
+def copy = { InputStream input, OutputStream output, byte[] buffer ->
+    long bytes = 0
+    for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+        output.write(buffer, 0, read)
+        bytes += read
+    }
+    return bytes
+}
+def exports = exportTypes.collect { type ->
+    exportExecutor.submit({
+        File typeDir = new File(exportWorkDir, type)
+        typeDir.mkdirs()
+        // Otherwise the workers write their logs over each other's
+        File typeLogDir = new File('${logDir}', 'data-export-' + type)
+        typeLogDir.mkdirs()
+        long start = System.nanoTime()
+        //dataExport(String target, String dataDir, String type, String sysid, String logDir)
+        portalShellBuildHelper.dataExport('data-export',
+            typeDir.path.replace('\\\\', '/'),
+            type,
+            ' ',
+            typeLogDir.path.replace('\\\\', '/'));
+        long exportNanos = System.nanoTime() - start
+
+        // Zip the type here, so that it waits for its turn compressed
+        byte[] buffer = new byte[64 * 1024]
+        long entities = 0
+        long bytes = 0
+        new File(exportWorkDir, type + '.zip').withOutputStream { output ->
+            def typeZip = new java.util.zip.ZipOutputStream(new BufferedOutputStream(output))
+            typeDir.eachFileRecurse(groovy.io.FileType.FILES) { file ->
+                String path = typeDir.toURI().relativize(file.toURI()).path
+                typeZip.putNextEntry(new java.util.zip.ZipEntry(type + '/' + path))
+                file.withInputStream { input -> bytes += copy(input, typeZip, buffer) }
+                typeZip.closeEntry()
+                file.delete()
+                entities++
+            }
+            typeZip.finish()
+            typeZip.flush()
+        }
+        typeDir.deleteDir()
+        return [type: type, entities: entities, bytes: bytes, nanos: exportNanos]
+    } as java.util.concurrent.Callable)
+}
+
+def shard = 0
+def shardEntities = 0L
+def zip = null
+def buffer = new byte[64 * 1024]
+def exportStats = []
+try {
+    // Archive the types in dependency order, the workers keep exporting and zipping later types meanwhile
+    exports.each { future ->
+        Map stat
+        try {
+            stat = future.get()
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw e.cause
+        }
+
+        if (zip == null || (shardSize > 0 && shardEntities >= shardSize)) {
+            zip?.close()
+            shard++
+            shardEntities = 0
+            zip = new java.util.zip.ZipOutputStream(new BufferedOutputStream(new FileOutputStream(shardFile(shard))))
+        }
+
+        File typeZipFile = new File(exportWorkDir, stat.type + '.zip')
+        typeZipFile.withInputStream { input ->
+            def typeZip = new java.util.zip.ZipInputStream(new BufferedInputStream(input))
+            for (def entry = typeZip.nextEntry; entry != null; entry = typeZip.nextEntry) {
+                zip.putNextEntry(new java.util.zip.ZipEntry(entry.name))
+                copy(typeZip, zip, buffer)
+                zip.closeEntry()
+            }
+        }
+        typeZipFile.delete()
+        shardEntities += stat.entities
+        exportStats << (stat + [shard: shard])
+    }
+} finally {
+    zip?.close()
+    exportExecutor.shutdownNow()
+}
+
+println String.format('%-24s %9s %9s %10s %12s %6s', 'Entity type', 'Entities', 'MB', 'Export s', 'Entities/s', 'Shard')
+exportStats.each { stat ->
+    double seconds = stat.nanos / 1e9
+    println String.format('%-24s %9d %9.1f %10.1f %12.1f %6d', stat.type, stat.entities, stat.bytes / 1048576.0,
+            seconds, seconds > 0 ? stat.entities / seconds : 0.0, stat.shard)
+}
+println String.format('Exported %d entities with ${threads} threads in %.1f s into %d archive(s)',
+        exportStats.sum { it.entities } ?: 0, (System.nanoTime() - exportStart) / 1e9, shard)
+(1..shard).each { println "  \${shardFile(it)}" }
+""")
+    }
+
+}
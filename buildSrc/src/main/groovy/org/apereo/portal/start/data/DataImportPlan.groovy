@@ -0,0 +1,419 @@
+package org.apereo.portal.start.data
+
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
+import org.apereo.portal.start.shell.PortalShellInvoker
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+
+/**
+ * Orders the entity files in one or more data directories so that they can be imported
+ * concurrently.  Files are classified by entity type, and the types are arranged into levels using
+ * the dependencies between them:  every type in a level only depends on types in earlier levels,
+ * so all files in a level may be imported at the same time.  Group memberships refer to each other
+ * by name, so they are further split into levels that import child groups before their parents.
+ *
+ * Files of the types in SHARED_GROUP_TYPES update rows other files of the same type update too,
+ * so they are imported one at a time, in a single batch, while other types of their level are
+ * imported around them.
+ *
+ * Data directories are planned one after the other, so entities in a later directory (e.g. the
+ * implementation data set) still replace the same entities from an earlier one (e.g. the base
+ * data set).
+ */
+class DataImportPlan {
+
+    private static final Logger logger = Logging.getLogger(DataImportPlan)
+
+    /**
+     * Entity types, keyed by the root element of their XML, and the types that must be imported
+     * before them.
+     */
+    static final Map<String,List<String>> TYPE_DEPENDENCIES = [
+            'entity-type': [],
+            'portlet-type': [],
+            'stylesheet-descriptor': [],
+            'permission_owner': ['entity-type'],
+            'pags-group': ['entity-type'],
+            'group_membership': ['entity-type', 'pags-group'],
+            'event-aggregation': ['group_membership'],
+            'portlet-definition': ['portlet-type', 'group_membership', 'permission_owner'],
+            'template-user': ['entity-type'],
+            'user': ['template-user'],
+            'fragment-definition': ['group_membership', 'pags-group'],
+            'profile': ['user', 'fragment-definition', 'stylesheet-descriptor'],
+            'fragment-layout': ['fragment-definition', 'profile', 'portlet-definition'],
+            'layout': ['user', 'profile', 'portlet-definition', 'fragment-layout'],
+            'permission_set': ['permission_owner', 'group_membership', 'portlet-definition', 'user'],
+            'predefined-calendar': ['portlet-definition'],
+            'predefined-news': ['portlet-definition'],
+            'topic': ['portlet-definition'],
+            'announcement': ['topic']
+    ].asImmutable()
+
+    /**
+     * Entity types whose files update the same groups and permissions as other files of the type:
+     * every portlet definition adds itself to its category groups and grants SUBSCRIBE and BROWSE
+     * permissions, and permission sets replace the permissions of their owner and activity.
+     * uPortal's group and permission stores do not guard against concurrent updates of the same
+     * group or permissions, so the files of these types are never imported concurrently.  They
+     * depend on each other, so they never share a level either.
+     */
+    static final Set<String> SHARED_GROUP_TYPES = ['portlet-definition', 'permission_set'].toSet().asImmutable()
+
+    private static final Map<String,String> ROOT_ELEMENT_TYPES = [
+            'group': 'group_membership',
+            'permission-owner': 'permission_owner',
+            'permission-set': 'permission_set'
+    ].asImmutable()
+
+    private static final String FRAGMENT_LAYOUT_SUFFIX = '.fragment-layout.xml'
+
+    /** Files that can be imported concurrently, in the order the levels must be imported */
+    final List<Level> levels = []
+
+    static DataImportPlan create(List<File> dataDirs) {
+        return create(dataDirs, { true })
+    }
+
+    /**
+     * @param include Closure that returns true for the data files to import, e.g. those that
+     * changed since they were last imported
+     */
+    static DataImportPlan create(List<File> dataDirs, Closure<Boolean> include) {
+        DataImportPlan plan = new DataImportPlan()
+        dataDirs.each { dataDir ->
+            plan.addDataDir(dataDir, include)
+        }
+        return plan
+    }
+
+    /**
+     * @return the entity files in the data directory and its subdirectories
+     */
+    static List<File> listDataFiles(File dataDir) {
+        List<File> result = []
+        dataDir.eachFileRecurse { File file ->
+            if (file.isFile() && file.name.endsWith('.xml')) {
+                result.add(file)
+            }
+        }
+        return result.sort()
+    }
+
+    /**
+     * @return the entity type of the file, which is the root element of its XML except for
+     * group memberships, permissions, and fragment layouts
+     */
+    static String classify(File file) {
+        String rootElement = readRootElement(file)
+        return rootElement == null ? null : typeOf(rootElement, file.name)
+    }
+
+    /**
+     * @return the entity type of a file with the given root element and name
+     */
+    static String typeOf(String rootElement, String fileName) {
+        if (rootElement == 'layout' && fileName.endsWith(FRAGMENT_LAYOUT_SUFFIX)) {
+            return 'fragment-layout'
+        }
+        return ROOT_ELEMENT_TYPES[rootElement] ?: rootElement
+    }
+
+    /**
+     * @return every planned file, in an order that imports them correctly one at a time
+     */
+    List<File> getOrderedFiles() {
+        return levels.collectMany { level -> level.batchesByType.values().flatten() as List<File> }
+    }
+
+    /**
+     * Writes a PortalShell script that imports the planned files over a pool of worker threads,
+     * one level after the other, and prints how long each entity type took.
+     *
+     * @param scriptFile Script to append the import to
+     * @param manifestDir Directory to write the lists of files each worker imports in one call to
+     * @param threads Size of the worker pool
+     * @param logDir Directory the import writes its logs to
+     */
+    void appendScript(File scriptFile, File manifestDir, int threads, String logDir) {
+        manifestDir.deleteDir()
+        manifestDir.mkdirs()
+
+        StringBuilder levelsSource = new StringBuilder()
+        levels.eachWithIndex { Level level, int levelIndex ->
+            levelsSource.append('    [\n')
+            level.batches(threads).eachWithIndex { Batch batch, int batchIndex ->
+                File manifest = new File(manifestDir, "${levelIndex}-${batch.type}-${batchIndex}.txt")
+                manifest.withWriter('UTF-8') { writer ->
+                    batch.files.each { writer.write(it.absolutePath + '\n') }
+                }
+                String manifestPath = PortalShellInvoker.createGroovySafePath(manifest.absolutePath)
+                levelsSource.append("        [type: '${batch.type}', files: ${batch.files.size()}, manifest: '${manifestPath}'],\n")
+            }
+            levelsSource.append('    ],\n')
+        }
+
+        // Appended to a script that may already contain statements, so no import statements
+        scriptFile.append(
+"""
+def importLevels = [
+${levelsSource}]
+def importTimings = new LinkedHashMap<String,Map<String,Long>>()
+def importStart = System.nanoTime()
+def importExecutor = java.util.concurrent.Executors.newFixedThreadPool(${threads})
+try {
+    importLevels.each { level ->
+        List<java.util.concurrent.Future> futures = level.collect { batch ->
+            importExecutor.submit({
+                long start = System.nanoTime()
+                //dataImport(String target, String dataDir, String pattern, String filesList, String archive, String logDir)
+                portalShellBuildHelper.dataImport('data-import',
+                    ' ',
+                    ' ',
+                    portalShellBuildHelper.getFilesListStringFromInput(' ', ' ', batch.manifest),
+                    ' ',
+                    '${logDir}');
+                return [start, System.nanoTime()]
+            } as java.util.concurrent.Callable)
+        }
+        // Elapsed time of a type is the time from its first batch starting to its last finishing
+        Map<String,Map<String,Long>> levelTimings = [:]
+        [level, futures].transpose().each { batch, future ->
+            def (long start, long end) = future.get()
+            Map<String,Long> timing = levelTimings.get(batch.type, [files: 0L, busy: 0L, first: start, last: end])
+            timing.files += batch.files
+            timing.busy += end - start
+            timing.first = Math.min(timing.first, start)
+            timing.last = Math.max(timing.last, end)
+        }
+        levelTimings.each { type, timing ->
+            Map<String,Long> total = importTimings.get(type, [files: 0L, busy: 0L, elapsed: 0L])
+            total.files += timing.files
+            total.busy += timing.busy
+            total.elapsed += timing.last - timing.first
+        }
+    }
+} catch (java.util.concurrent.ExecutionException e) {
+    throw e.cause
+} finally {
+    importExecutor.shutdownNow()
+}
+
+println String.format('%-24s %8s %10s %10s', 'Entity type', 'Files', 'Elapsed s', 'Busy s')
+importTimings.each { type, timing ->
+    println String.format('%-24s %8d %10.1f %10.1f', type, timing.files, timing.elapsed / 1e9, timing.busy / 1e9)
+}
+println String.format('Imported with ${threads} threads in %.1f s', (System.nanoTime() - importStart) / 1e9)
+""")
+    }
+
+    private void addDataDir(File dataDir, Closure<Boolean> include) {
+        Map<String,List<File>> filesByType = new TreeMap<>()
+        listDataFiles(dataDir).findAll(include).each { File file ->
+            String type = classify(file)
+            if (type == null) {
+                logger.warn("Skipping ${file}, it is not well-formed XML")
+            } else {
+                filesByType.computeIfAbsent(type, { new ArrayList<File>() }).add(file)
+            }
+        }
+
+        // Arrange the known types into levels, a type goes in the level after its last dependency
+        Map<String,Integer> typeLevels = [:]
+        TYPE_DEPENDENCIES.keySet().each { type ->
+            levelOf(type, typeLevels)
+        }
+        List<Level> dirLevels = []
+        filesByType.each { type, files ->
+            Integer typeLevel = typeLevels[type]
+            if (typeLevel != null) {
+                while (dirLevels.size() <= typeLevel) {
+                    dirLevels.add(new Level())
+                }
+                dirLevels[typeLevel].add(type, files)
+            }
+        }
+        List<File> groupFiles = filesByType['group_membership']
+        if (groupFiles != null) {
+            int groupLevel = typeLevels['group_membership']
+            Level otherTypes = dirLevels.remove(groupLevel)
+            otherTypes.batchesByType.remove('group_membership')
+            List<Level> groupLevels = planGroupMemberships(groupFiles)
+            if (groupLevels[0].sequential) {
+                groupLevels.add(0, otherTypes)
+            } else {
+                // The other types on this level do not depend on group memberships
+                groupLevels[0].batchesByType.putAll(otherTypes.batchesByType)
+            }
+            dirLevels.addAll(groupLevel, groupLevels)
+        }
+
+        // Types without dependency information are imported last, one file at a time
+        filesByType.findAll { type, files -> !TYPE_DEPENDENCIES.containsKey(type) }.each { type, files ->
+            logger.warn("No dependency information for entity type '${type}', " +
+                    "importing its ${files.size()} file(s) from ${dataDir} after all other types")
+            Level level = new Level(sequential: true)
+            level.add(type, files)
+            dirLevels.add(level)
+        }
+
+        levels.addAll(dirLevels.findAll { !it.batchesByType.isEmpty() })
+    }
+
+    /**
+     * @return the entity types in an order they can be imported in, one after the other;  types
+     * without dependency information come last
+     */
+    static List<String> sortTypes(Collection<String> types) {
+        Map<String,Integer> typeLevels = [:]
+        return types.toSorted { a, b ->
+            int levelA = TYPE_DEPENDENCIES.containsKey(a) ? levelOf(a, typeLevels) : Integer.MAX_VALUE
+            int levelB = TYPE_DEPENDENCIES.containsKey(b) ? levelOf(b, typeLevels) : Integer.MAX_VALUE
+            return levelA <=> levelB ?: a <=> b
+        }
+    }
+
+    private static int levelOf(String type, Map<String,Integer> typeLevels) {
+        Integer level = typeLevels[type]
+        if (level == null) {
+            level = 0
+            TYPE_DEPENDENCIES[type].each { dependency ->
+                level = Math.max(level, levelOf(dependency, typeLevels) + 1)
+            }
+            typeLevels[type] = level
+        }
+        return level
+    }
+
+    /**
+     * Splits group membership files into levels that import child groups before the groups that
+     * contain them.  Groups in a cycle are imported together, one file at a time, after all others.
+     */
+    private static List<Level> planGroupMemberships(List<File> files) {
+        Map<String,File> filesByName = [:]
+        Map<File,Set<String>> childGroups = [:]
+        files.each { file ->
+            Set<String> children = new HashSet<>()
+            filesByName[readGroup(file, children)] = file
+            childGroups[file] = children
+        }
+
+        List<Level> result = []
+        Set<File> remaining = new LinkedHashSet<>(files)
+        while (!remaining.isEmpty()) {
+            List<File> ready = remaining.findAll { file ->
+                childGroups[file].every { name -> !remaining.contains(filesByName[name]) }
+            } as List<File>
+            Level level = new Level()
+            if (ready.isEmpty()) {
+                level.sequential = true
+                ready = new ArrayList<>(remaining)
+            }
+            level.add('group_membership', ready)
+            result.add(level)
+            remaining.removeAll(ready)
+        }
+        return result
+    }
+
+    /**
+     * @return the name of the group in a group membership file
+     * @param children Set to add the names of the group's child groups to
+     */
+    private static String readGroup(File file, Set<String> children) {
+        XMLInputFactory factory = XMLInputFactory.newInstance()
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        return file.withInputStream { input ->
+            XMLStreamReader reader = factory.createXMLStreamReader(input)
+            try {
+                String name = null
+                List<String> path = []
+                while (reader.hasNext()) {
+                    int event = reader.next()
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        path.add(reader.localName)
+                        if (path == ['group', 'name']) {
+                            name = reader.elementText.trim()
+                            path.remove(path.size() - 1)
+                        } else if (path == ['group', 'children', 'group']) {
+                            children.add(reader.elementText.trim())
+                            path.remove(path.size() - 1)
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        path.remove(path.size() - 1)
+                    }
+                }
+                return name
+            } finally {
+                reader.close()
+            }
+        }
+    }
+
+    private static String readRootElement(File file) {
+        XMLInputFactory factory = XMLInputFactory.newInstance()
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        return file.withInputStream { input ->
+            XMLStreamReader reader = factory.createXMLStreamReader(input)
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        return reader.localName
+                    }
+                }
+                return null
+            } catch (XMLStreamException e) {
+                return null
+            } finally {
+                reader.close()
+            }
+        }
+    }
+
+    /**
+     * Files of one or more entity types that may be imported concurrently.
+     */
+    static class Level {
+        final Map<String,List<File>> batchesByType = new LinkedHashMap<>()
+
+        /** True if the files must be imported one at a time */
+        boolean sequential = false
+
+        void add(String type, List<File> files) {
+            batchesByType.computeIfAbsent(type, { new ArrayList<File>() }).addAll(files)
+        }
+
+        /**
+         * Splits the files into batches small enough to keep every worker busy until the level is
+         * done, yet large enough that each call into the import does a fair amount of work.  The
+         * files of a type in SHARED_GROUP_TYPES stay in one batch, which imports them one at a
+         * time.
+         */
+        List<Batch> batches(int threads) {
+            if (sequential) {
+                return batchesByType.collect { type, files -> new Batch(type: type, files: files) }
+            }
+            List<Batch> result = []
+            batchesByType.each { type, files ->
+                int batchSize = SHARED_GROUP_TYPES.contains(type) ? files.size() :
+                        Math.max(1, (int) Math.ceil(files.size() / (threads * 4.0)))
+                files.collate(batchSize).each { batchFiles ->
+                    result.add(new Batch(type: type, files: batchFiles))
+                }
+            }
+            return result
+        }
+    }
+
+    /**
+     * Files of one entity type that are imported in a single call.
+     */
+    static class Batch {
+        String type
+        List<File> files
+    }
+
+}
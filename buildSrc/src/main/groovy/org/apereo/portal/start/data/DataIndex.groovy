@@ -0,0 +1,380 @@
+package org.apereo.portal.start.data
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import javax.xml.XMLConstants
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
+import javax.xml.transform.stream.StreamSource
+import javax.xml.validation.Schema
+import javax.xml.validation.Validator
+import org.xml.sax.SAXException
+
+/**
+ * Index of the entities in one or more data directories:  the type and id of every entity, and
+ * the entities it refers to (e.g. a fragment layout refers to its fragment definition and to the
+ * portlet definitions it contains).  Files are read in parallel with StAX, so building the index
+ * takes seconds even for large data sets, and optionally validated against the schemas they
+ * declare.
+ *
+ * The index is saved as JSON along with the size and modification time of every file, so later
+ * builds can reuse it (e.g. to import only some types or entities) until the files change.
+ */
+class DataIndex {
+
+    /**
+     * Element (or attribute, after '@') paths from the root element that hold the id of an
+     * entity, by entity type.  Types not listed here are identified by their file name.
+     */
+    static final Map<String,List<String>> ID_PATHS = [
+            'entity-type': ['entity-type', 'name'],
+            'portlet-type': ['portlet-type', 'name'],
+            'stylesheet-descriptor': ['stylesheet-descriptor', 'name'],
+            'permission_owner': ['permission-owner', 'fname'],
+            'pags-group': ['pags-group', 'name'],
+            'group_membership': ['group', 'name'],
+            'portlet-definition': ['portlet-definition', 'fname'],
+            'template-user': ['template-user', '@username'],
+            'user': ['user', '@username'],
+            'fragment-definition': ['fragment-definition', 'fragment', '@ownerID'],
+            'profile': ['profile', '@username'],
+            'fragment-layout': ['layout', '@username'],
+            'layout': ['layout', '@username'],
+            'predefined-calendar': ['predefined-calendar', 'fname'],
+            'predefined-news': ['predefined-news', 'fname']
+    ].asImmutable()
+
+    /**
+     * Element (or attribute) paths that refer to other entities, by entity type, with the kind
+     * of entity they refer to.
+     */
+    static final Map<String,List<Reference>> REFERENCE_PATHS = [
+            'user': [new Reference(['user', 'default-user'], 'user')],
+            'group_membership': [
+                    new Reference(['group', 'children', 'group'], 'group'),
+                    new Reference(['group', 'children', 'literal'], 'user')],
+            'portlet-definition': [
+                    new Reference(['portlet-definition', 'type'], 'portlet-type'),
+                    new Reference(['portlet-definition', 'category'], 'group'),
+                    new Reference(['portlet-definition', 'group'], 'group'),
+                    new Reference(['portlet-definition', 'permissions', 'permission', '@system'], 'permission_owner'),
+                    new Reference(['portlet-definition', 'permissions', 'permission', 'group'], 'group')],
+            'fragment-definition': [
+                    new Reference(['fragment-definition', 'fragment', 'audience', '*', 'attribute', '@name'], 'group',
+                            { Map<String,String> attributes -> attributes.mode?.endsWith('MemberOf') })],
+            'profile': [
+                    new Reference(['profile', '@username'], 'user'),
+                    new Reference(['profile', 'structure', '@name'], 'stylesheet-descriptor'),
+                    new Reference(['profile', 'theme', '@name'], 'stylesheet-descriptor')],
+            'fragment-layout': [
+                    new Reference(['layout', '@username'], 'fragment-definition'),
+                    new Reference(['layout', '*', 'channel', '@fname'], 'portlet-definition')],
+            'layout': [
+                    new Reference(['layout', '@username'], 'user'),
+                    new Reference(['layout', '*', 'channel', '@fname'], 'portlet-definition')],
+            'permission_set': [
+                    new Reference(['permission-set', 'owner'], 'permission_owner'),
+                    new Reference(['permission-set', 'principal', 'group'], 'group'),
+                    new Reference(['permission-set', 'principal', 'user'], 'user'),
+                    new Reference(['permission-set', 'target', 'group'], 'group')],
+            'event-aggregation': [
+                    new Reference(['event-aggregation', 'aggregated-group-config', 'include', 'groupName'], 'group')]
+    ].asImmutable()
+
+    /** Entity types a reference of each kind may resolve to */
+    static final Map<String,List<String>> REFERENCE_KINDS = [
+            'group': ['group_membership', 'pags-group'],
+            'user': ['user', 'template-user', 'fragment-definition']
+    ].asImmutable()
+
+    /** Configured once, factories are expensive to look up and safe to share once configured */
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance()
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+    }
+
+    /** Indexed data directories */
+    final List<File> dataDirs = []
+
+    /** Indexed entities, in the order of their files */
+    final List<Entity> entities = []
+
+    /** Size and modification time of every indexed file, to tell whether the index is current */
+    final Map<String,String> fileStamps = new LinkedHashMap<>()
+
+    /**
+     * Reads the entity files in the data directories with a pool of threads.
+     *
+     * @param catalog Schemas to validate files against, or null to skip validation
+     */
+    static DataIndex create(List<File> dataDirs, SchemaCatalog catalog, int threads) {
+        List<File> files = dataDirs.collectMany { DataImportPlan.listDataFiles(it) }
+        DataIndex index = new DataIndex()
+        index.dataDirs.addAll(dataDirs)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+        try {
+            List<Future<Entity>> futures = files.collect { File file ->
+                executor.submit({ readEntity(file, catalog) } as java.util.concurrent.Callable<Entity>)
+            }
+            futures.each { future ->
+                try {
+                    index.entities.add(future.get())
+                } catch (ExecutionException e) {
+                    throw e.cause
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+        files.each { index.fileStamps[it.absolutePath] = stamp(it) }
+        return index
+    }
+
+    /**
+     * @return the entities of the data directories from the index saved in the file, or null if
+     * there is none, it does not cover the directories, or their files changed since it was saved
+     */
+    static DataIndex load(File indexFile, List<File> dataDirs) {
+        if (!indexFile.exists()) {
+            return null
+        }
+        Map json = (Map) new JsonSlurper().parse(indexFile, 'UTF-8')
+        Map<String,String> currentStamps = new LinkedHashMap<>()
+        dataDirs.collectMany { DataImportPlan.listDataFiles(it) }.each { File file ->
+            currentStamps[file.absolutePath] = stamp(file)
+        }
+        List<String> prefixes = dataDirs.collect { it.absolutePath + File.separator }
+        Closure<Boolean> inDataDirs = { String path -> prefixes.any { path.startsWith(it) } }
+        if (json.files.findAll { path, stamp -> inDataDirs(path) } != currentStamps) {
+            return null
+        }
+        DataIndex index = new DataIndex()
+        index.dataDirs.addAll(dataDirs)
+        index.fileStamps.putAll(currentStamps)
+        json.entities.findAll { inDataDirs(it.file) }.each { Map entity ->
+            index.entities.add(new Entity(file: new File(entity.file), type: entity.type, id: entity.id,
+                    references: entity.references.collect { new EntityRef(kind: it.kind, id: it.id) },
+                    problems: entity.problems))
+        }
+        return index
+    }
+
+    void save(File indexFile) {
+        Map json = [
+                dataDirs: dataDirs*.absolutePath,
+                files: fileStamps,
+                entities: entities.collect { entity ->
+                    [file: entity.file.absolutePath, type: entity.type, id: entity.id,
+                            references: entity.references.collect { [kind: it.kind, id: it.id] },
+                            problems: entity.problems]
+                },
+                dangling: getDanglingReferences().collect { entity, refs ->
+                    [file: entity.file.absolutePath, references: refs.collect { [kind: it.kind, id: it.id] }]
+                },
+                importOrder: DataImportPlan.create(dataDirs).orderedFiles*.absolutePath
+        ]
+        indexFile.parentFile.mkdirs()
+        indexFile.setText(JsonOutput.prettyPrint(JsonOutput.toJson(json)), 'UTF-8')
+    }
+
+    /**
+     * @return the references that no indexed entity resolves, by the entity that makes them
+     */
+    Map<Entity,List<EntityRef>> getDanglingReferences() {
+        Set<String> known = new HashSet<>()
+        entities.each { entity ->
+            if (entity.id != null) {
+                known.add("${entity.type}:${entity.id}".toString())
+            }
+        }
+        Map<Entity,List<EntityRef>> result = new LinkedHashMap<>()
+        entities.each { entity ->
+            List<EntityRef> dangling = entity.references.findAll { ref ->
+                !(REFERENCE_KINDS[ref.kind] ?: [ref.kind]).any { known.contains("${it}:${ref.id}".toString()) }
+            }
+            if (!dangling.isEmpty()) {
+                result[entity] = dangling
+            }
+        }
+        return result
+    }
+
+    /**
+     * @return the entities with problems (not well-formed, or not valid against their schema)
+     */
+    List<Entity> getInvalidEntities() {
+        return entities.findAll { !it.problems.isEmpty() }
+    }
+
+    /**
+     * @param types Entity types to select, all if empty
+     * @param ids Entity ids to select, all if empty
+     * @return the files of the selected entities
+     */
+    List<File> select(Collection<String> types, Collection<String> ids) {
+        return entities.findAll { entity ->
+            (types.isEmpty() || types.contains(entity.type)) && (ids.isEmpty() || ids.contains(entity.id))
+        }*.file
+    }
+
+    private static String stamp(File file) {
+        return "${file.length()}@${file.lastModified()}".toString()
+    }
+
+    private static Entity readEntity(File file, SchemaCatalog catalog) {
+        Entity entity = new Entity(file: file)
+        String schemaLocation = null
+        try {
+            file.withInputStream { input ->
+                XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input)
+                try {
+                    List<String> path = []
+                    while (reader.hasNext()) {
+                        int event = reader.next()
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            path.add(reader.localName)
+                            if (path.size() == 1) {
+                                entity.type = DataImportPlan.typeOf(reader.localName, file.name)
+                                schemaLocation = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, 'schemaLocation')
+                            }
+                            Map<String,String> attributes = [:]
+                            for (int i = 0; i < reader.attributeCount; i++) {
+                                attributes[reader.getAttributeLocalName(i)] = reader.getAttributeValue(i)
+                            }
+                            attributes.each { name, value ->
+                                entity.read(path + "@${name}".toString(), value, attributes)
+                            }
+                            if (entity.wantsText(path)) {
+                                entity.read(path, reader.elementText, attributes)
+                                path.remove(path.size() - 1)
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            path.remove(path.size() - 1)
+                        }
+                    }
+                } finally {
+                    reader.close()
+                }
+            }
+        } catch (XMLStreamException e) {
+            entity.problems.add("Not well-formed: ${e.message}".toString())
+            return entity
+        }
+        if (entity.id == null) {
+            entity.id = file.name - ~/\.xml$/
+        }
+
+        if (catalog != null && schemaLocation != null) {
+            try {
+                Schema schema = catalog.getSchema(schemaLocation)
+                if (schema == null) {
+                    entity.problems.add("Schema not found in the deployed webapp: ${schemaLocation.trim()}".toString())
+                } else {
+                    Validator validator = schema.newValidator()
+                    file.withInputStream { input ->
+                        validator.validate(new StreamSource(input, file.toURI().toString()))
+                    }
+                }
+            } catch (SAXException e) {
+                entity.problems.add("Not valid: ${e.message}".toString())
+            }
+        }
+        return entity
+    }
+
+    /**
+     * An entity file, and what the index knows about it.
+     */
+    static class Entity {
+        File file
+        String type
+        String id
+        List<EntityRef> references = []
+        List<String> problems = []
+
+        /** @return true if the text of the element at the path is the id or a reference */
+        boolean wantsText(List<String> path) {
+            return matches(ID_PATHS[type], path) || REFERENCE_PATHS[type].any { matches(it.path, path) }
+        }
+
+        /**
+         * @param attributes Attributes of the element the value is (or is in)
+         */
+        void read(List<String> path, String value, Map<String,String> attributes) {
+            String trimmed = value?.trim()
+            if (!trimmed) {
+                return
+            }
+            if (id == null && matches(ID_PATHS[type], path)) {
+                id = trimmed
+            }
+            REFERENCE_PATHS[type].each { Reference reference ->
+                if (matches(reference.path, path) && reference.condition(attributes)) {
+                    references.add(new EntityRef(kind: reference.kind, id: trimmed))
+                }
+            }
+        }
+
+        @Override
+        String toString() {
+            return "${type} '${id}' (${file})"
+        }
+
+        /** '*' in a pattern matches any number of elements */
+        private static boolean matches(List<String> pattern, List<String> path) {
+            if (pattern == null) {
+                return false
+            }
+            int wildcard = pattern.indexOf('*')
+            if (wildcard < 0) {
+                return pattern == path
+            }
+            List<String> head = pattern.subList(0, wildcard)
+            List<String> tail = pattern.subList(wildcard + 1, pattern.size())
+            return path.size() >= head.size() + tail.size() &&
+                    path.subList(0, head.size()) == head &&
+                    path.subList(path.size() - tail.size(), path.size()) == tail
+        }
+    }
+
+    /**
+     * A reference from one entity to another, by the kind and id of the entity referred to.
+     */
+    static class EntityRef {
+        String kind
+        String id
+
+        @Override
+        String toString() {
+            return "${kind} '${id}'"
+        }
+    }
+
+    /**
+     * Where in the XML of an entity type a reference is found.
+     */
+    static class Reference {
+        final List<String> path
+        final String kind
+
+        /** Closure that is passed the attributes of the element and returns false to ignore it */
+        final Closure<Boolean> condition
+
+        Reference(List<String> path, String kind) {
+            this(path, kind, { true })
+        }
+
+        Reference(List<String> path, String kind, Closure<Boolean> condition) {
+            this.path = path
+            this.kind = kind
+            this.condition = condition
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.apereo.portal.start.data
+
+import java.security.MessageDigest
+
+/**
+ * Remembers the SHA-256 hash of the content of every entity file imported into the portal
+ * database, so that a later import of the same data directory can skip the files that have not
+ * changed since.  The hashes are kept in a properties file keyed by the canonical path of each file.
+ *
+ * The manifest only knows about imports made through the build;  entities changed in the portal
+ * itself (or a database restored from elsewhere) are not noticed, so a forced import is still
+ * needed in those cases.
+ */
+class ImportManifest {
+
+    private final File manifestFile
+    private final Properties hashes = new Properties()
+
+    ImportManifest(File manifestFile) {
+        this.manifestFile = manifestFile
+        if (manifestFile.exists()) {
+            manifestFile.withInputStream { hashes.load(it) }
+        }
+    }
+
+    /**
+     * @return the files that are new or have changed since they were last imported, with the hash
+     * of their current content;  iterates in the order of the files passed in
+     */
+    Map<File,String> findChanged(Collection<File> files) {
+        return hash(files).findAll { file, hash -> hashes.getProperty(file.canonicalPath) != hash }
+    }
+
+    /**
+     * @return the files with the hash of their current content, in the order passed in
+     */
+    static Map<File,String> hash(Collection<File> files) {
+        Map<File,String> result = new LinkedHashMap<>()
+        files.each { file ->
+            result[file] = hashContent(file)
+        }
+        return result
+    }
+
+    /**
+     * Records files as imported.  The hashes are those from {@link #findChanged}, so that a file
+     * edited while the import runs is imported again next time.
+     */
+    void recordImported(Map<File,String> fileHashes) {
+        fileHashes.each { file, hash ->
+            hashes.setProperty(file.canonicalPath, hash)
+        }
+    }
+
+    /**
+     * Forgets every imported file, e.g. because the database was recreated.
+     */
+    void clear() {
+        hashes.clear()
+    }
+
+    void save() {
+        manifestFile.parentFile.mkdirs()
+        manifestFile.withOutputStream { hashes.store(it, 'SHA-256 hashes of imported entity files') }
+    }
+
+    private static String hashContent(File file) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        file.eachByte(8192) { byte[] buffer, int length ->
+            digest.update(buffer, 0, length)
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
+}
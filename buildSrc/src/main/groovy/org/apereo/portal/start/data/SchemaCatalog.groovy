@@ -0,0 +1,127 @@
+package org.apereo.portal.start.data
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.ZipFile
+import javax.xml.XMLConstants
+import javax.xml.validation.Schema
+import javax.xml.validation.SchemaFactory
+import javax.xml.transform.stream.StreamSource
+import org.w3c.dom.ls.LSInput
+import org.w3c.dom.ls.LSResourceResolver
+
+/**
+ * Finds the XML schemas that entity files declare in their xsi:schemaLocation among the jars of
+ * the deployed uPortal webapp, so files can be validated without fetching anything from the
+ * network.  Schemas are looked up by file name (e.g. user-4.0.xsd), which is how the
+ * schemaLocation URLs and the jars both name them.
+ */
+class SchemaCatalog {
+
+    private final Map<String,URL> locations = [:]
+    private final Map<String,Schema> schemas = new ConcurrentHashMap<>()
+
+    /**
+     * @param roots Jar files and class directories to look for .xsd files in;  those that do not
+     * exist are ignored
+     */
+    SchemaCatalog(Collection<File> roots) {
+        roots.each { File root ->
+            if (root.isDirectory()) {
+                root.eachFileRecurse { File file ->
+                    if (file.name.endsWith('.xsd')) {
+                        locations.putIfAbsent(file.name, file.toURI().toURL())
+                    }
+                }
+            } else if (root.isFile() && root.name.endsWith('.jar')) {
+                new ZipFile(root).withCloseable { ZipFile jar ->
+                    jar.entries().each { entry ->
+                        if (entry.name.endsWith('.xsd')) {
+                            String name = entry.name.substring(entry.name.lastIndexOf('/') + 1)
+                            locations.putIfAbsent(name, new URL("jar:${root.toURI()}!/${entry.name}"))
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the catalog of the jars and classes of the webapp deployed in the given directory
+     */
+    static SchemaCatalog forWebapp(File webappDir) {
+        List<File> roots = [new File(webappDir, 'WEB-INF/classes')]
+        File libDir = new File(webappDir, 'WEB-INF/lib')
+        if (libDir.isDirectory()) {
+            roots.addAll(libDir.listFiles().sort())
+        }
+        return new SchemaCatalog(roots)
+    }
+
+    boolean isEmpty() {
+        return locations.isEmpty()
+    }
+
+    /**
+     * @param schemaLocation Value of an xsi:schemaLocation attribute
+     * @return the schema for the locations it declares, or null if any of them is not in the
+     * catalog
+     */
+    Schema getSchema(String schemaLocation) {
+        List<String> tokens = schemaLocation.trim().tokenize()
+        if (tokens.size() < 2) {
+            return null
+        }
+        List<String> names = (1..<tokens.size()).step(2).collect { int i ->
+            tokens[i].substring(tokens[i].lastIndexOf('/') + 1)
+        }
+        if (!names.every { locations.containsKey(it) }) {
+            return null
+        }
+        // Schema instances are thread safe, factories are not
+        return schemas.computeIfAbsent(names.join(' ')) { String key ->
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, 'file,jar')
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, '')
+            factory.resourceResolver = new CatalogResolver()
+            StreamSource[] sources = names.collect { name ->
+                URL url = locations[name]
+                new StreamSource(url.openStream(), url.toExternalForm())
+            } as StreamSource[]
+            return factory.newSchema(sources)
+        }
+    }
+
+    /**
+     * Resolves schemas imported or included by absolute URL to the copies in the catalog.
+     */
+    private class CatalogResolver implements LSResourceResolver {
+        @Override
+        LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+            if (systemId == null) {
+                return null
+            }
+            URL url = locations[systemId.substring(systemId.lastIndexOf('/') + 1)]
+            if (url == null) {
+                return null
+            }
+            LSInput input = new LSInputAdapter()
+            input.systemId = url.toExternalForm()
+            input.publicId = publicId
+            input.baseURI = baseURI
+            input.byteStream = url.openStream()
+            return input
+        }
+    }
+
+    private static class LSInputAdapter implements LSInput {
+        Reader characterStream
+        InputStream byteStream
+        String stringData
+        String systemId
+        String publicId
+        String baseURI
+        String encoding
+        boolean certifiedText
+    }
+
+}
@@ -0,0 +1,401 @@
+package org.apereo.portal.start.data
+
+import groovy.transform.CompileStatic
+import groovy.xml.XmlUtil
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.stream.IntStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Generates a large population of users, with their group memberships, PAGS groups and layouts,
+ * into a zip archive that dataImport -Darchive={path} accepts.  The entity files of the base and
+ * quickstart data sets are the templates:  users are copies of the quickstart student, members are
+ * added to copies of the Students, Faculty and Staff groups, and so on.
+ *
+ * Everything is derived from the seed, so the same seed and number of users always produce the same
+ * archive.  Users are generated in batches on all processors and written to the archive as they are
+ * generated;  only one byte per user is kept in memory until the group memberships are written.
+ *
+ * Distributions:
+ *   - roles:  80% students, 12% staff, 8% faculty (Students, Staff and Faculty groups);  some
+ *     students are also employed as staff, and some staff also study
+ *   - departments:  a department attribute with a Zipf distribution (a few large departments, many
+ *     small ones), and a PAGS group per department that selects users by it
+ *   - layouts:  a share of users (25% by default) have customized their layout, with a tab of 1 to 8
+ *     portlets chosen by popularity (Zipf) from the quickstart portlet definitions
+ *
+ * Passwords are random, hashed the way uPortal hashes new passwords (SHA-256, 8 byte salt, 1000
+ * iterations), and listed with the usernames in a CSV file for login benchmarks.
+ */
+class SyntheticDataGenerator {
+
+    static final List<String> ROLES = [ 'student', 'staff', 'faculty' ].asImmutable()
+    static final double[] ROLE_SHARES = [ 0.80, 0.12, 0.08 ] as double[]
+    static final Map<String,String> ROLE_GROUPS = [ student: 'Students', staff: 'Staff', faculty: 'Faculty' ].asImmutable()
+
+    /** Groups of other roles, and the share of the users with a role that are also members */
+    static final Map<String,Map<String,Double>> EXTRA_GROUPS = [
+            Staff: [ student: 0.05d ],
+            Students: [ staff: 0.03d ]
+    ].asImmutable()
+
+    static final List<String> DEPARTMENTS = [
+            'Biology', 'Business', 'Chemistry', 'Computer Science', 'Economics', 'Education',
+            'Engineering', 'English', 'History', 'Mathematics', 'Nursing', 'Psychology', 'Physics',
+            'Political Science', 'Sociology', 'Art', 'Music', 'Philosophy', 'Linguistics', 'Geology',
+            'Anthropology', 'Astronomy', 'Classics', 'Theatre', 'Statistics', 'Library',
+            'Registrar', 'Athletics', 'Facilities', 'Information Technology'
+    ].asImmutable()
+
+    static final List<String> GIVEN_NAMES = [
+            'Alex', 'Ana', 'Ben', 'Chen', 'Dana', 'Eli', 'Fatima', 'Grace', 'Hiro', 'Ines', 'Jamal',
+            'Kate', 'Luis', 'Maya', 'Noah', 'Olga', 'Priya', 'Quinn', 'Rosa', 'Sam', 'Tariq', 'Uma',
+            'Victor', 'Wen', 'Xavier', 'Yara', 'Zoe'
+    ].asImmutable()
+
+    static final List<String> SURNAMES = [
+            'Adams', 'Brown', 'Chavez', 'Davis', 'Evans', 'Fischer', 'Garcia', 'Haddad', 'Ito',
+            'Johnson', 'Kim', 'Lopez', 'Miller', 'Nguyen', 'Okafor', 'Patel', 'Quintero', 'Rossi',
+            'Smith', 'Tanaka', 'Usman', 'Varga', 'Wang', 'Xu', 'Young', 'Zhang'
+    ].asImmutable()
+
+    /** Groups whose members may subscribe to a portlet that is offered to ordinary users */
+    private static final Set<String> USER_GROUPS = ([ 'Everyone', 'Authenticated Users' ] + ROLE_GROUPS.values()) as Set
+
+    private static final int BATCH_SIZE = 1024
+    private static final int SALT_BYTES = 8
+    private static final int HASH_ITERATIONS = 1000
+    private static final char[] PASSWORD_CHARS = 'abcdefghijkmnpqrstuvwxyzABCDEFGHJKLMNPQRSTUVWXYZ23456789'.toCharArray()
+
+    /** Zip entries get a fixed time, so the archive only depends on the seed */
+    private static final long ENTRY_TIME = 1514764800000L
+
+    final File baseDir
+    final File templateDir
+    final int users
+    final long seed
+
+    /** Share of the users with a customized layout */
+    double layoutShare = 0.25d
+
+    /** Usernames are this prefix followed by the user number */
+    String usernamePrefix = 'synthetic'
+
+    private final List<String> portletFnames
+
+    /**
+     * @param baseDir The base data set, with the layout, profile and PAGS group templates
+     * @param templateDir The quickstart data set, with the user, group membership and portlet
+     * definition templates
+     */
+    SyntheticDataGenerator(File baseDir, File templateDir, int users, long seed) {
+        this.baseDir = baseDir
+        this.templateDir = templateDir
+        this.users = users
+        this.seed = seed
+        this.portletFnames = userPortlets()
+    }
+
+    /**
+     * Writes the archive, and the usernames and passwords of the users to the credentials file.
+     *
+     * @return the number of entities written by type
+     */
+    Map<String,Integer> generate(File archive, File credentialsFile) {
+        archive.absoluteFile.parentFile.mkdirs()
+        credentialsFile.absoluteFile.parentFile.mkdirs()
+
+        Map<String,Integer> counts = new TreeMap<>()
+        byte[] memberships = new byte[users]
+        String userTemplate = template(new File(templateDir, 'user/student.user.xml'))
+        String layoutTemplate = template(new File(baseDir, 'layout/defaultTemplateUser.layout.xml'))
+        List<File> profileTemplates = new File(baseDir, 'profile').listFiles().findAll {
+            it.name.startsWith('defaultTemplateUser_')
+        }.sort()
+
+        new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive))).withCloseable { ZipOutputStream zip ->
+            credentialsFile.withWriter('UTF-8') { Writer credentials ->
+                credentials.write('username,password,role,department\n')
+                for (int start = 0; start < users; start += BATCH_SIZE) {
+                    int end = Math.min(users, start + BATCH_SIZE)
+                    // Hashing dominates, so users are generated in parallel and written in order
+                    List<GeneratedUser> batch = IntStream.range(start, end).parallel()
+                            .mapToObj({ int i -> generateUser(i) })
+                            .collect(java.util.stream.Collectors.toList())
+                    batch.each { GeneratedUser user ->
+                        memberships[user.index] = user.memberships
+                        credentials.write("${user.username},${user.password},${user.role},${user.department}\n")
+
+                        writeEntry(zip, "user/${user.username}.user.xml", userXml(userTemplate, user))
+                        increment(counts, 'user')
+                        if (user.portlets) {
+                            writeEntry(zip, "layout/${user.username}.layout.xml", layoutXml(layoutTemplate, user))
+                            increment(counts, 'layout')
+                            profileTemplates.each { File profileTemplate ->
+                                String name = profileTemplate.name.replace('defaultTemplateUser_', "${user.username}_")
+                                writeEntry(zip, "profile/${name}", replaceUsername(template(profileTemplate), user.username))
+                                increment(counts, 'profile')
+                            }
+                        }
+                    }
+                }
+            }
+
+            groupNames().eachWithIndex { String group, int bit ->
+                File groupTemplate = new File(templateDir, "group_membership/${group}.group-membership.xml")
+                if (groupTemplate.isFile()) {
+                    writeGroupMembership(zip, groupTemplate, memberships, (byte) (1 << bit))
+                    increment(counts, 'group_membership')
+                }
+            }
+
+            String pagsTemplate = template(new File(baseDir, 'pags-group/All_Users.pags-group.xml'))
+            DEPARTMENTS.each { String department ->
+                writeEntry(zip, "pags-group/${department.replace(' ', '_')}.pags-group.xml", departmentGroupXml(pagsTemplate, department))
+                increment(counts, 'pags-group')
+            }
+            // The root of the PAGS groups, with the department groups added to its members
+            String root = template(new File(baseDir, 'pags-group/PAGS_Root.pags-group.xml'))
+            int members = root.lastIndexOf('</members>')
+            writeEntry(zip, 'pags-group/PAGS_Root.pags-group.xml', root.substring(0, members) +
+                    DEPARTMENTS.collect { "  <member-name>${departmentGroupName(it)}</member-name>\n  " }.join('') +
+                    root.substring(members))
+            increment(counts, 'pags-group')
+        }
+        return counts
+    }
+
+    /**
+     * @return the user with the given number;  every choice is made from a random generator seeded
+     * from the seed and the number, so users do not depend on each other or on the order they are
+     * generated in
+     */
+    GeneratedUser generateUser(int index) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index)
+        GeneratedUser user = new GeneratedUser()
+        user.index = index
+        user.username = String.format('%s%07d', usernamePrefix, index)
+        user.role = ROLES[choose(random, ROLE_SHARES)]
+        user.department = DEPARTMENTS[zipf(random, DEPARTMENTS.size())]
+        user.givenName = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.size())]
+        user.surname = SURNAMES[random.nextInt(SURNAMES.size())]
+
+        List<String> groups = groupNames()
+        int memberships = 1 << groups.indexOf(ROLE_GROUPS[user.role])
+        EXTRA_GROUPS.each { String group, Map<String,Double> shares ->
+            if (random.nextDouble() < (shares[user.role] ?: 0d)) {
+                memberships |= 1 << groups.indexOf(group)
+            }
+        }
+        user.memberships = (byte) memberships
+
+        if (!portletFnames.isEmpty() && random.nextDouble() < layoutShare) {
+            Set<String> portlets = new LinkedHashSet<>()
+            int count = 1 + random.nextInt(Math.min(8, portletFnames.size()))
+            while (portlets.size() < count) {
+                portlets.add(portletFnames[zipf(random, portletFnames.size())])
+            }
+            user.portlets = portlets as List
+        }
+
+        char[] password = new char[12]
+        for (int i = 0; i < password.length; i++) {
+            password[i] = PASSWORD_CHARS[random.nextInt(PASSWORD_CHARS.length)]
+        }
+        user.password = new String(password)
+        byte[] salt = new byte[SALT_BYTES]
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (byte) random.nextInt(256)
+        }
+        user.passwordHash = hashPassword(user.password, salt)
+        return user
+    }
+
+    /**
+     * @return the password hash in the (SHA256) format uPortal writes to UP_PERSON_DIR:  base64 of
+     * the salt followed by the digest of the salt and password, digested again 999 times
+     */
+    @CompileStatic
+    static String hashPassword(String password, byte[] salt) {
+        MessageDigest md = MessageDigest.getInstance('SHA-256')
+        md.update(salt)
+        md.update(password.getBytes(StandardCharsets.UTF_8))
+        byte[] digest = md.digest()
+        for (int i = 1; i < HASH_ITERATIONS; i++) {
+            digest = md.digest(digest)
+        }
+        byte[] hash = new byte[salt.length + digest.length]
+        System.arraycopy(salt, 0, hash, 0, salt.length)
+        System.arraycopy(digest, 0, hash, salt.length, digest.length)
+        return '(SHA256)' + Base64.encoder.encodeToString(hash)
+    }
+
+    private static List<String> groupNames() {
+        return (ROLE_GROUPS.values() + EXTRA_GROUPS.keySet()).unique()
+    }
+
+    private static String departmentGroupName(String department) {
+        return "Department - ${department}"
+    }
+
+    private String userXml(String template, GeneratedUser user) {
+        int password = template.indexOf('<password>')
+        int end = template.lastIndexOf('</user>')
+        StringBuilder xml = new StringBuilder(replaceUsername(template.substring(0, password), user.username))
+        xml.append("<password>${user.passwordHash}</password>\n")
+        [
+                givenName: user.givenName,
+                sn: user.surname,
+                displayName: "${user.givenName} ${user.surname}",
+                mail: "${user.username}@example.org",
+                department: user.department,
+                eduPersonPrimaryAffiliation: user.role
+        ].each { String name, Object value ->
+            xml.append("    <attribute>\n        <name>${name}</name>\n        <value>${XmlUtil.escapeXml(value.toString())}</value>\n    </attribute>\n")
+        }
+        xml.append(template.substring(end))
+        return xml.toString()
+    }
+
+    private static String layoutXml(String template, GeneratedUser user) {
+        // Add a tab to the root folder of the template
+        int rootEnd = template.lastIndexOf('</folder>')
+        StringBuilder xml = new StringBuilder(replaceUsername(template.substring(0, rootEnd), user.username))
+        xml.append('  <folder hidden="false" immutable="false" name="My Tab" type="regular" unremovable="false">\n')
+        user.portlets.collate((user.portlets.size() + 1).intdiv(2)).eachWithIndex { List<String> column, int i ->
+            xml.append("      <folder hidden=\"false\" immutable=\"false\" name=\"Column ${i + 1}\" type=\"regular\" unremovable=\"false\">\n")
+            column.each { String fname ->
+                xml.append("        <channel fname=\"${fname}\" hidden=\"false\" immutable=\"false\" unremovable=\"false\"/>\n")
+            }
+            xml.append('      </folder>\n')
+        }
+        xml.append('    </folder>\n  ')
+        xml.append(template.substring(rootEnd))
+        return xml.toString()
+    }
+
+    private static String departmentGroupXml(String template, String department) {
+        return template
+                .replaceFirst('(?s)<!--.*?-->\\s*', '')
+                .replaceFirst('(?s)<name>.*?</name>', "<name>${departmentGroupName(department)}</name>")
+                .replaceFirst('(?s)<description>.*?</description>', "<description>Members of the ${department} department</description>")
+                .replaceFirst('(?s)<selection-test>.*</selection-test>', """<selection-test>
+    <test-group>
+      <test>
+        <attribute-name>department</attribute-name>
+        <tester-class>org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester</tester-class>
+        <test-value>${department}</test-value>
+      </test>
+    </test-group>
+  </selection-test>""")
+    }
+
+    /**
+     * Writes a copy of the group with the generated members added to its children;  usernames are
+     * derived from the user numbers, so the members need not be kept in memory.
+     */
+    private void writeGroupMembership(ZipOutputStream zip, File groupFile, byte[] memberships, byte bit) {
+        String xml = template(groupFile).replace('<children/>', '<children>\n  </children>')
+        int childrenEnd = xml.lastIndexOf('</children>')
+        zip.putNextEntry(entry("group_membership/${groupFile.name}"))
+        Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8))
+        writer.write(xml.substring(0, childrenEnd))
+        for (int i = 0; i < memberships.length; i++) {
+            if ((memberships[i] & bit) != 0) {
+                writer.write(String.format('  <literal>%s%07d</literal>\n  ', usernamePrefix, i))
+            }
+        }
+        writer.write(xml.substring(childrenEnd))
+        writer.flush()
+        zip.closeEntry()
+    }
+
+    /**
+     * @return fnames of the quickstart portlets offered to ordinary users, in a random order that
+     * ranks their popularity
+     */
+    private List<String> userPortlets() {
+        List<String> fnames = []
+        new File(templateDir, 'portlet-definition').listFiles().sort().each { File file ->
+            String xml = file.getText('UTF-8')
+            def fname = xml =~ /<fname>([^<]+)<\/fname>/
+            Set<String> groups = (xml =~ /<group>([^<]+)<\/group>/).collect { it[1] } as Set
+            if (fname.find() && groups.any { USER_GROUPS.contains(it) }) {
+                fnames.add(fname.group(1))
+            }
+        }
+        Collections.shuffle(fnames, new Random(seed))
+        return fnames
+    }
+
+    /** @return the entity file without its license header comment */
+    private static String template(File file) {
+        return file.getText('UTF-8').replaceFirst('(?s)<!--.*?Licensed to Apereo.*?-->\\s*', '')
+    }
+
+    private static String replaceUsername(String xml, String username) {
+        return xml.replaceFirst('username="[^"]*"', "username=\"${username}\"")
+    }
+
+    private static ZipEntry entry(String name) {
+        ZipEntry entry = new ZipEntry(name)
+        entry.time = ENTRY_TIME
+        return entry
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, String content) {
+        zip.putNextEntry(entry(name))
+        zip.write(content.getBytes(StandardCharsets.UTF_8))
+        zip.closeEntry()
+    }
+
+    private static void increment(Map<String,Integer> counts, String type) {
+        counts[type] = (counts[type] ?: 0) + 1
+    }
+
+    /** @return an index chosen with the given probabilities */
+    @CompileStatic
+    private static int choose(SplittableRandom random, double[] shares) {
+        double r = random.nextDouble()
+        for (int i = 0; i < shares.length - 1; i++) {
+            r -= shares[i]
+            if (r < 0) {
+                return i
+            }
+        }
+        return shares.length - 1
+    }
+
+    /** @return an index from 0 to n - 1, where index k is chosen in proportion to 1 / (k + 1) */
+    @CompileStatic
+    private static int zipf(SplittableRandom random, int n) {
+        double total = 0
+        for (int k = 1; k <= n; k++) {
+            total += 1d / k
+        }
+        double r = random.nextDouble() * total
+        for (int k = 1; k <= n; k++) {
+            r -= 1d / k
+            if (r < 0) {
+                return k - 1
+            }
+        }
+        return n - 1
+    }
+
+    static class GeneratedUser {
+        int index
+        String username
+        String password
+        String passwordHash
+        String role
+        String department
+        String givenName
+        String surname
+        byte memberships
+        List<String> portlets
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.apereo.portal.start.gradle
+
+import java.util.concurrent.ConcurrentHashMap
+import org.gradle.BuildAdapter
+import org.gradle.BuildResult
+import org.gradle.api.Task
+import org.gradle.api.execution.TaskExecutionListener
+import org.gradle.api.tasks.TaskState
+
+/**
+ * Records when every task of the build starts and finishes, and reports the critical path at the
+ * end:  the chain of tasks, ending with the last one to finish, in which each task waited on the
+ * one before it.  Any other task could have taken longer without delaying the build, so the
+ * critical path is where to look for bootstrap time that can be saved.
+ *
+ * A task waits on the task it depends on (or must run after) that finished last.  Time between
+ * that task finishing and the next one starting was spent waiting for a free worker.
+ */
+class TaskTimingReport extends BuildAdapter implements TaskExecutionListener {
+
+    private final File reportFile
+    private final long buildStart = System.nanoTime()
+    private final Map<Task,Long> starts = new ConcurrentHashMap<>()
+    private final Map<Task,Long> ends = new ConcurrentHashMap<>()
+
+    /**
+     * @param reportFile File to write the report to, in addition to the console
+     */
+    TaskTimingReport(File reportFile) {
+        this.reportFile = reportFile
+    }
+
+    @Override
+    void beforeExecute(Task task) {
+        starts[task] = System.nanoTime()
+    }
+
+    @Override
+    void afterExecute(Task task, TaskState state) {
+        ends[task] = System.nanoTime()
+    }
+
+    @Override
+    void buildFinished(BuildResult result) {
+        if (ends.isEmpty()) {
+            return
+        }
+        List<String> lines = []
+        lines.add(String.format('Critical path of the build (%.1f s):', seconds(System.nanoTime() - buildStart)))
+        lines.add(String.format('  %-52s %9s %9s %9s', 'Task', 'Start s', 'Waited s', 'Took s'))
+        criticalPath().each { Task task ->
+            Task predecessor = predecessorOf(task)
+            long ready = predecessor == null ? buildStart : ends[predecessor]
+            lines.add(String.format('  %-52s %9.1f %9.1f %9.1f', task.path, seconds(starts[task] - buildStart),
+                    seconds(Math.max(0L, starts[task] - ready)), seconds(ends[task] - starts[task])))
+        }
+
+        lines.add('Slowest tasks:')
+        ends.keySet().sort { -(ends[it] - starts[it]) }.take(10).each { Task task ->
+            lines.add(String.format('  %-52s %9.1f s', task.path, seconds(ends[task] - starts[task])))
+        }
+
+        lines.each { result.gradle.rootProject.logger.lifecycle(it) }
+        reportFile.parentFile.mkdirs()
+        reportFile.text = lines.join(System.lineSeparator()) + System.lineSeparator()
+    }
+
+    /**
+     * @return the tasks on the critical path, in the order they ran
+     */
+    List<Task> criticalPath() {
+        List<Task> result = []
+        Task task = ends.keySet().max { ends[it] }
+        while (task != null) {
+            result.add(0, task)
+            task = predecessorOf(task)
+        }
+        return result
+    }
+
+    /**
+     * @return the task this one waited on:  the executed task it depends on, or must run after,
+     * that finished last
+     */
+    private Task predecessorOf(Task task) {
+        Set<Task> predecessors = new HashSet<>()
+        predecessors.addAll(task.taskDependencies.getDependencies(task))
+        predecessors.addAll(task.mustRunAfter.getDependencies(task))
+        return predecessors.findAll { ends.containsKey(it) && ends[it] <= starts[task] }.max { ends[it] }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9
+    }
+
+}
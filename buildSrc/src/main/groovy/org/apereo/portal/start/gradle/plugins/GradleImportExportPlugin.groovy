@@ -51,5 +51,41 @@ class GradleImportExportPlugin implements Plugin<Project> {
                 }
             }
         }
+        project.task('dataValidate') {
+            group 'Data'
+            dependsOn project.rootProject.tasks.portalProperties
+            doFirst {
+                if (project.tasks.dataValidate.actions.size() == 1) {
+                    logger.lifecycle('No actions have been defined for this task in this project')
+                }
+            }
+        }
+        project.task('dataGenerate') {
+            group 'Data'
+            dependsOn project.rootProject.tasks.portalProperties
+            doFirst {
+                if (project.tasks.dataGenerate.actions.size() == 1) {
+                    logger.lifecycle('No actions have been defined for this task in this project')
+                }
+            }
+        }
+        project.task('shellDaemonStart') {
+            group 'Data'
+            dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            doFirst {
+                if (project.tasks.shellDaemonStart.actions.size() == 1) {
+                    logger.lifecycle('No actions have been defined for this task in this project')
+                }
+            }
+        }
+        project.task('shellDaemonStop') {
+            group 'Data'
+            dependsOn project.rootProject.tasks.portalProperties
+            doFirst {
+                if (project.tasks.shellDaemonStop.actions.size() == 1) {
+                    logger.lifecycle('No actions have been defined for this task in this project')
+                }
+            }
+        }
     }
 }
@@ -1,5 +1,7 @@
 package org.apereo.portal.start.gradle.plugins
 
+import org.apereo.portal.start.tomcat.WarSynchronizer
+import org.gradle.api.GradleException
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.tasks.Delete
@@ -13,6 +15,11 @@ class GradleTomcatDeployPlugin implements Plugin<Project> {
             dependsOn project.rootProject.tasks.portalProperties
             mustRunAfter project.rootProject.tasks.tomcatInstall
 
+            // In sync mode tomcatDeploy updates the deployed application in place
+            onlyIf {
+                deployMode(project) == 'clean' || !project.gradle.taskGraph.hasTask(project.tasks.tomcatDeploy)
+            }
+
             doFirst {
                 File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
                 File deployDir = new File (serverBase, "webapps/${project.name}")
@@ -34,13 +41,31 @@ class GradleTomcatDeployPlugin implements Plugin<Project> {
                 String artifactDir = project.plugins.hasPlugin(GradlePlutoPlugin) ? 'pluto' : 'libs'
                 File warFile = new File("${project.buildDir}/${artifactDir}/${project.name}.war")
 
-                project.copy {
-                    with project.copySpec {
-                        from project.zipTree(warFile)
+                if (deployMode(project) == 'sync') {
+                    WarSynchronizer synchronizer = new WarSynchronizer(warFile, deployDir)
+                    synchronizer.sync()
+                    logger.lifecycle("Synchronized ${deployDir}:  ${synchronizer}")
+                } else {
+                    project.copy {
+                        with project.copySpec {
+                            from project.zipTree(warFile)
+                        }
+                        into deployDir
                     }
-                    into deployDir
                 }
             }
         }
     }
+
+    /**
+     * @return 'clean' to delete the deployed application and extract the WAR again, or 'sync' to
+     * rewrite only the files that changed
+     */
+    private static String deployMode(Project project) {
+        String mode = project.rootProject.ext['buildProperties'].getProperty('tomcat.deploy.mode', 'clean')
+        if (!['clean', 'sync'].contains(mode)) {
+            throw new GradleException("Unknown tomcat.deploy.mode '${mode}';  use 'clean' or 'sync'")
+        }
+        return mode
+    }
 }
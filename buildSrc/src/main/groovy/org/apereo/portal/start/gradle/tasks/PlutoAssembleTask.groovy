@@ -0,0 +1,104 @@
+package org.apereo.portal.start.gradle.tasks
+
+import javax.inject.Inject
+import org.apache.pluto.util.assemble.Assembler
+import org.apache.pluto.util.assemble.AssemblerConfig
+import org.apache.pluto.util.assemble.AssemblerFactory
+import org.gradle.api.DefaultTask
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.IsolationMode
+import org.gradle.workers.WorkerConfiguration
+import org.gradle.workers.WorkerExecutor
+
+/**
+ * Processes a portlet application WAR with the Apache Pluto Assembler.  The WAR is the only
+ * input, so the task is up-to-date (or restored from the build cache) as long as the WAR does not
+ * change.  The assembly runs through the worker API, which lets Gradle assemble the WARs of
+ * independent overlays at the same time.
+ */
+@CacheableTask
+class PlutoAssembleTask extends DefaultTask {
+
+    private final WorkerExecutor workerExecutor
+
+    private Object source
+
+    /** The processed WAR */
+    @OutputFile
+    File destination
+
+    @Inject
+    PlutoAssembleTask(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor
+    }
+
+    /**
+     * @return the WAR to process;  only its content matters, not its name or location
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    File getSource() {
+        return project.file(source)
+    }
+
+    /**
+     * @param source Anything Project.file() accepts, e.g. a closure that returns the WAR once it
+     * is known
+     */
+    void setSource(Object source) {
+        this.source = source
+    }
+
+    @TaskAction
+    void assemble() {
+        File archiveSource = getSource()
+        File archiveOutput = getDestination()
+        archiveOutput.parentFile.mkdirs()
+
+        logger.lifecycle("Processing archive ${archiveSource.getName()} " +
+                "into destination directory ${archiveOutput.parentFile.getPath()} " +
+                "with the Apache Pluto Assembler")
+
+        workerExecutor.submit(AssembleAction) { WorkerConfiguration config ->
+            config.isolationMode = IsolationMode.NONE
+            config.displayName = "Pluto assembly of ${archiveSource.getName()}"
+            config.params(archiveSource, archiveOutput)
+        }
+    }
+
+    /**
+     * Runs the Assembler on one WAR, in a Gradle worker thread.
+     */
+    static class AssembleAction implements Runnable {
+
+        private static final Logger logger = Logging.getLogger(AssembleAction)
+
+        private final File source
+        private final File destination
+
+        @Inject
+        AssembleAction(File source, File destination) {
+            this.source = source
+            this.destination = destination
+        }
+
+        @Override
+        void run() {
+            long start = System.nanoTime()
+            AssemblerConfig config = new AssemblerConfig()
+            config.setSource(source)
+            config.setDestination(destination)
+            Assembler assembler = AssemblerFactory.getFactory().createAssembler(config)
+            assembler.assemble(config)
+            logger.info("Assembled ${destination.getName()} in ${(System.nanoTime() - start) / 1000000} ms")
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.apereo.portal.start.loadtest
+
+import groovy.transform.CompileStatic
+
+/**
+ * Records the outcome of the operations of one scenario.  Each client thread records into its own
+ * recorder;  the recorders of a scenario are merged once its clients have stopped.
+ */
+@CompileStatic
+class LatencyRecorder {
+
+    private long[] latencies = new long[1024]
+    private int count = 0
+    private int errors = 0
+
+    /**
+     * @param nanos Latency of an operation that succeeded
+     */
+    void success(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2)
+        }
+        latencies[count++] = nanos
+    }
+
+    void error() {
+        errors++
+    }
+
+    /**
+     * @param recorders Recorders of the clients of a scenario
+     * @param seconds Length of the measured period
+     * @return operations, errors, error rate, throughput, and latency percentiles in milliseconds;
+     *     latencies are of the operations that succeeded only, so that fast failures (a refused
+     *     connection, say) do not make a scenario look faster
+     */
+    static Map<String,Object> summarize(Collection<LatencyRecorder> recorders, double seconds) {
+        int total = (int) recorders.sum(0) { LatencyRecorder it -> it.count }
+        int errors = (int) recorders.sum(0) { LatencyRecorder it -> it.errors }
+        long[] all = new long[total]
+        long sum = 0
+        int i = 0
+        for (LatencyRecorder recorder : recorders) {
+            for (int j = 0; j < recorder.count; j++) {
+                sum += recorder.latencies[j]
+                all[i++] = recorder.latencies[j]
+            }
+        }
+        Arrays.sort(all)
+
+        Map<String,Object> result = new LinkedHashMap<>()
+        result.put('operations', total + errors)
+        result.put('errors', errors)
+        result.put('errorRate', round(total + errors == 0 ? 0d : errors / (double) (total + errors)))
+        result.put('throughputPerSecond', round(total / seconds))
+        Map<String,Object> latency = new LinkedHashMap<>()
+        latency.put('mean', round(total == 0 ? 0d : sum / (double) total / 1000000d))
+        latency.put('p50', percentile(all, 0.50d))
+        latency.put('p95', percentile(all, 0.95d))
+        latency.put('p99', percentile(all, 0.99d))
+        latency.put('max', total == 0 ? 0d : round(all[total - 1] / 1000000d))
+        result.put('latencyMillis', latency)
+        return result
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0d
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1
+        return round(sorted[Math.max(index, 0)] / 1000000d)
+    }
+
+    /** Rounded to three places, so that reports diff cleanly */
+    private static double round(double value) {
+        return Math.round(value * 1000d) / 1000d
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.apereo.portal.start.loadtest
+
+/**
+ * A browser-like HTTP client for one virtual user of a load test:  it keeps its own cookies, so
+ * its portal and CAS sessions are its own, and follows redirects itself so that cookies set along
+ * a chain of redirects (as in a CAS login) are kept.
+ *
+ * Uses HttpURLConnection without the JVM-wide CookieHandler, which every client would share.
+ */
+class PortalClient {
+
+    static final int MAX_REDIRECTS = 10
+
+    final int timeoutMillis
+
+    private CookieManager cookies = new CookieManager(null, CookiePolicy.ACCEPT_ALL)
+
+    PortalClient(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis
+    }
+
+    /**
+     * The response to a request, after any redirects.
+     */
+    static class Response {
+        /** Status of the last response */
+        int status
+        /** URL of the last request */
+        URL url
+        /** Location of the last response if it was a redirect that was not followed */
+        String location
+        /** Body of the last response */
+        String body
+    }
+
+    Response get(String url, boolean followRedirects = true) {
+        return request('GET', new URL(url), null, followRedirects)
+    }
+
+    Response post(String url, Map<String,String> form, boolean followRedirects = true) {
+        String body = form.collect { key, value ->
+            "${URLEncoder.encode(key, 'UTF-8')}=${URLEncoder.encode(value, 'UTF-8')}"
+        }.join('&')
+        return request('POST', new URL(url), body, followRedirects)
+    }
+
+    /**
+     * @return the value of the cookie the client would send to the URL, null if it has none
+     */
+    String cookie(String url, String name) {
+        return cookies.cookieStore.get(new URI(url)).find { it.name == name }?.value
+    }
+
+    /**
+     * Forgets all cookies, which ends the client's sessions as far as the server can tell.
+     */
+    void clearCookies() {
+        cookies = new CookieManager(null, CookiePolicy.ACCEPT_ALL)
+    }
+
+    private Response request(String method, URL url, String body, boolean followRedirects) {
+        for (int redirects = 0; ; redirects++) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection()
+            connection.instanceFollowRedirects = false
+            connection.useCaches = false
+            connection.connectTimeout = timeoutMillis
+            connection.readTimeout = timeoutMillis
+            connection.requestMethod = method
+            cookies.get(url.toURI(), [:]).each { String name, List<String> values ->
+                if (!values.isEmpty()) {
+                    connection.setRequestProperty(name, values.join('; '))
+                }
+            }
+            if (body != null) {
+                connection.doOutput = true
+                connection.setRequestProperty('Content-Type', 'application/x-www-form-urlencoded')
+                connection.outputStream.withStream { it.write(body.getBytes('UTF-8')) }
+            }
+
+            Response response = new Response(status: connection.responseCode, url: url)
+            cookies.put(url.toURI(), connection.headerFields.findAll { it.key != null })
+            // Always read the body, so that the connection can be reused
+            InputStream stream = response.status < 400 ? connection.inputStream : connection.errorStream
+            response.body = stream == null ? '' : stream.withStream { it.getText('UTF-8') }
+
+            String location = connection.getHeaderField('Location')
+            if (response.status in 300..399 && location != null) {
+                if (!followRedirects || redirects == MAX_REDIRECTS) {
+                    response.location = new URL(url, location).toString()
+                    return response
+                }
+                url = new URL(url, location)
+                method = 'GET'
+                body = null
+            } else {
+                return response
+            }
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+package org.apereo.portal.start.loadtest
+
+import groovy.json.JsonOutput
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.regex.Matcher
+import org.gradle.api.GradleException
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+
+/**
+ * Drives a running portal from concurrent virtual users, one scenario at a time, and reports the
+ * throughput, latency percentiles and error rate of each scenario.
+ *
+ * The scenarios are:
+ * <ul>
+ *   <li>guestRender:  renders the portal's guest page</li>
+ *   <li>casLogin:  logs in through the CAS login form, from the form to the first page of the
+ *       portal, so that the password is checked by the CAS authentication handler each time</li>
+ *   <li>authenticatedRender:  renders the layout of a logged in user</li>
+ *   <li>portletResource:  requests portlet resource URLs as a logged in user</li>
+ * </ul>
+ * Each scenario runs for a warmup period, which is not measured, and then for the measured
+ * period.  Users log in for the authenticated scenarios before the warmup starts.  A portal that
+ * loses a user's session renders the guest layout rather than sending the user back to CAS, so in
+ * those scenarios a request only counts as a success while the client still has the session it
+ * logged in with.
+ */
+class PortalLoadTest {
+
+    static final List<String> SCENARIOS = [
+            'guestRender',
+            'casLogin',
+            'authenticatedRender',
+            'portletResource'
+    ].asImmutable()
+
+    /** Quickstart users, when no credentials are specified */
+    static final List<List<String>> QUICKSTART_CREDENTIALS = [
+            ['admin', 'admin'],
+            ['faculty', 'faculty'],
+            ['staff', 'staff'],
+            ['student', 'student']
+    ].asImmutable()
+
+    /** Quickstart portlets whose resources are requested, when none are specified */
+    static final List<String> DEFAULT_PORTLETS = ['weather', 'calendar', 'announcements'].asImmutable()
+
+    /** Cookie of the servlet container's session */
+    static final String SESSION_COOKIE = 'JSESSIONID'
+
+    private static final Logger logger = Logging.getLogger(PortalLoadTest)
+
+    /** URL of the portal webapp, e.g. http://localhost:8080/uPortal */
+    final String portalUrl
+
+    /** URL of the CAS webapp, e.g. http://localhost:8080/cas */
+    final String casUrl
+
+    /** Usernames and passwords the virtual users log in with, in turn */
+    List<List<String>> credentials = QUICKSTART_CREDENTIALS
+
+    /** Fnames of the portlets whose resources are requested, in turn */
+    List<String> portlets = DEFAULT_PORTLETS
+
+    /** Number of virtual users, each with its own thread */
+    int clients = 8
+
+    int warmupSeconds = 5
+
+    int seconds = 30
+
+    int timeoutMillis = 30000
+
+    PortalLoadTest(String portalUrl, String casUrl) {
+        this.portalUrl = portalUrl.replaceFirst(/\/+$/, '')
+        this.casUrl = casUrl.replaceFirst(/\/+$/, '')
+    }
+
+    /**
+     * Reads the credentials file dataGenerate writes:  a CSV file with a header, and a username
+     * and password in the first two columns.
+     */
+    static List<List<String>> readCredentials(File file) {
+        List<String> lines = file.readLines('UTF-8').findAll { !it.trim().isEmpty() }
+        if (lines.size() < 2) {
+            throw new GradleException("${file} lists no credentials")
+        }
+        return lines.drop(1).collect { String line ->
+            List<String> columns = line.split(',', -1) as List<String>
+            [columns[0], columns[1]]
+        }
+    }
+
+    /**
+     * Runs the scenarios, in the order given.
+     *
+     * @return a report that converts to JSON with {@link #toJson(Map)}
+     */
+    Map<String,Object> run(List<String> scenarios) {
+        List<String> unknown = scenarios - SCENARIOS
+        if (!unknown.isEmpty()) {
+            throw new GradleException("Unknown scenarios ${unknown};  choose from ${SCENARIOS}")
+        }
+
+        Map<String,Object> results = [:]
+        scenarios.each { String scenario ->
+            logger.lifecycle("Running ${scenario} with ${clients} clients for ${warmupSeconds}s + ${seconds}s")
+            results[scenario] = runScenario(scenario)
+            Map<String,Object> result = (Map<String,Object>) results[scenario]
+            Map<String,Object> latency = (Map<String,Object>) result.latencyMillis
+            logger.lifecycle(String.format('  %d operations, %.1f/s, %.2f%% errors, p50 %.1fms, p95 %.1fms, p99 %.1fms',
+                    result.operations, result.throughputPerSecond, result.errorRate * 100,
+                    latency.p50, latency.p95, latency.p99))
+        }
+
+        return [
+                portalUrl: portalUrl,
+                casUrl: casUrl,
+                clients: clients,
+                warmupSeconds: warmupSeconds,
+                seconds: seconds,
+                users: credentials.size(),
+                portlets: portlets,
+                scenarios: results
+        ]
+    }
+
+    static String toJson(Map<String,Object> report) {
+        return JsonOutput.prettyPrint(JsonOutput.toJson(report))
+    }
+
+    private Map<String,Object> runScenario(String scenario) {
+        boolean authenticated = scenario in ['authenticatedRender', 'portletResource']
+        List<PortalClient> portalClients = []
+        // The portal session of each client once logged in, null for guests
+        List<String> sessions = []
+        (0..<clients).each { int index ->
+            PortalClient client = new PortalClient(timeoutMillis)
+            String session = null
+            if (authenticated) {
+                List<String> user = credentials[index % credentials.size()]
+                if (!login(client, user)) {
+                    throw new GradleException("User ${user[0]} could not log in through ${casUrl};  " +
+                            'check that the portal is running and the credentials are right')
+                }
+                session = client.cookie("${portalUrl}/", SESSION_COOKIE)
+                if (session == null) {
+                    throw new GradleException("User ${user[0]} has no ${SESSION_COOKIE} cookie for ${portalUrl} after logging in")
+                }
+            }
+            portalClients.add(client)
+            sessions.add(session)
+        }
+
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds)
+        long end = measureStart + TimeUnit.SECONDS.toNanos(seconds)
+        ExecutorService executor = Executors.newFixedThreadPool(clients)
+        try {
+            List<Future<LatencyRecorder>> futures = portalClients.withIndex().collect { PortalClient client, int index ->
+                executor.submit({
+                    LatencyRecorder recorder = new LatencyRecorder()
+                    for (int iteration = index; ; iteration++) {
+                        long start = System.nanoTime()
+                        if (start >= end) {
+                            return recorder
+                        }
+                        boolean success
+                        try {
+                            success = execute(scenario, client, sessions[index], iteration)
+                        } catch (IOException e) {
+                            logger.debug("${scenario} failed", e)
+                            success = false
+                        }
+                        long finish = System.nanoTime()
+                        if (start >= measureStart && finish <= end) {
+                            if (success) {
+                                recorder.success(finish - start)
+                            } else {
+                                recorder.error()
+                            }
+                        }
+                    }
+                } as Callable<LatencyRecorder>)
+            }
+            return LatencyRecorder.summarize(futures.collect { it.get() }, seconds)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /**
+     * @param session The portal session the client logged in with, null for guests
+     */
+    private boolean execute(String scenario, PortalClient client, String session, int iteration) {
+        switch (scenario) {
+            case 'guestRender':
+            case 'authenticatedRender':
+                // The same request;  the client's session decides whose layout is rendered
+                PortalClient.Response response = client.get("${portalUrl}/")
+                return response.status == 200 && !response.url.toString().startsWith(casUrl) &&
+                        hasSession(client, session)
+            case 'casLogin':
+                client.clearCookies()
+                return login(client, credentials[iteration % credentials.size()])
+            case 'portletResource':
+                String fname = portlets[iteration % portlets.size()]
+                PortalClient.Response resource = client.get("${portalUrl}/p/${fname}/max/resource.uP")
+                return resource.status < 400 && !resource.url.toString().startsWith(casUrl) &&
+                        hasSession(client, session)
+            default:
+                throw new IllegalArgumentException(scenario)
+        }
+    }
+
+    /**
+     * @return true for guests, and for users whose client still has the session it logged in
+     * with;  a portal that lost the session has given the client a new, guest, one
+     */
+    private boolean hasSession(PortalClient client, String session) {
+        return session == null || session == client.cookie("${portalUrl}/", SESSION_COOKIE)
+    }
+
+    /**
+     * Logs in the way a browser does:  fetches the CAS login form for the portal's Login service,
+     * posts the credentials with the form's login ticket, and follows the service ticket to the
+     * portal.
+     *
+     * @return true if the portal answered with a page after accepting the service ticket
+     */
+    private boolean login(PortalClient client, List<String> user) {
+        String service = URLEncoder.encode("${portalUrl}/Login", 'UTF-8')
+        PortalClient.Response form = client.get("${casUrl}/login?service=${service}")
+        String lt = hiddenField(form.body, 'lt')
+        String execution = hiddenField(form.body, 'execution')
+        if (form.status != 200 || lt == null || execution == null) {
+            return false
+        }
+
+        PortalClient.Response submitted = client.post(form.url.toString(), [
+                username: user[0],
+                password: user[1],
+                lt: lt,
+                execution: execution,
+                _eventId: 'submit'
+        ], false)
+        if (submitted.location == null || !submitted.location.contains('ticket=')) {
+            return false
+        }
+
+        PortalClient.Response portal = client.get(submitted.location)
+        return portal.status == 200 && !portal.url.toString().startsWith(casUrl)
+    }
+
+    private static String hiddenField(String html, String name) {
+        Matcher matcher = html =~ /name="${name}"\s+value="([^"]*)"/
+        return matcher.find() ? matcher.group(1) : null
+    }
+
+}
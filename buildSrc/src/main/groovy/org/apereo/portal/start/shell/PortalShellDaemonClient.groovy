@@ -0,0 +1,181 @@
+package org.apereo.portal.start.shell
+
+import java.nio.charset.StandardCharsets
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+
+/**
+ * Starts, stops, and sends scripts to the {@link PortalShellDaemon} of the overlays:uPortal
+ * project.  A daemon started for a different deployment of the webapp (or a different portal.home)
+ * is restarted before it is used, since it would still be running the old code and configuration.
+ */
+class PortalShellDaemonClient {
+
+    /** Minutes a daemon waits for another script before it exits */
+    static final int DEFAULT_IDLE_MINUTES = 60
+
+    /** Minutes to wait for a new daemon to bootstrap the portal */
+    static final int STARTUP_TIMEOUT_MINUTES = 10
+
+    private final Project project
+    private final File stateFile
+    private final File logFile
+
+    PortalShellDaemonClient(Project project) {
+        this.project = project
+        File shellDir = new File(project.buildDir, 'shell')
+        this.stateFile = new File(shellDir, 'daemon.properties')
+        this.logFile = new File(shellDir, 'daemon.log')
+    }
+
+    /**
+     * @return true if data tasks should run their scripts on the daemon:  one is running, or
+     * -Dshell.daemon=true asks for one to be started
+     */
+    boolean isEnabled() {
+        return Boolean.getBoolean('shell.daemon') || stateFile.exists()
+    }
+
+    /**
+     * Runs the script on the daemon, starting or restarting the daemon if necessary.
+     */
+    void run(String scriptLocation, String... args) {
+        Properties state = ensureStarted()
+        int status = send(state, 'RUN', [scriptLocation] + (args as List)) { String line ->
+            println line
+        }
+        if (status != 0) {
+            throw new GradleException("PortalShell script ${scriptLocation} failed on the daemon")
+        }
+    }
+
+    /**
+     * @return the daemon's state, after starting a daemon if none is running for the current
+     * deployment
+     */
+    Properties ensureStarted() {
+        String fingerprint = fingerprint()
+        Properties state = readState()
+        if (state != null && state.getProperty('fingerprint') != fingerprint) {
+            project.logger.lifecycle('The deployed webapp changed, restarting the PortalShell daemon')
+            stop()
+            state = null
+        }
+        if (state == null) {
+            state = start(fingerprint)
+        }
+        return state
+    }
+
+    /**
+     * Stops the daemon, if one is running.
+     */
+    void stop() {
+        Properties state = readState()
+        if (state != null) {
+            send(state, 'STOP', []) { }
+            project.logger.lifecycle('Stopped the PortalShell daemon')
+        }
+        stateFile.delete()
+    }
+
+    private Properties start(String fingerprint) {
+        stateFile.delete()
+        stateFile.parentFile.mkdirs()
+
+        File daemonClasses = new File(PortalShellDaemon.protectionDomain.codeSource.location.toURI())
+        List<String> classpath = PortalShellInvoker.classpath(project) + daemonClasses.absolutePath
+        String javaExecutable = new File(System.getProperty('java.home'), 'bin/java').absolutePath
+
+        List<String> command = [javaExecutable, '-cp', classpath.join(File.pathSeparator)]
+        PortalShellInvoker.systemProperties(project).each { key, value ->
+            command.add("-D${key}=${value}".toString())
+        }
+        command.addAll([PortalShellDaemon.name, stateFile.absolutePath, fingerprint,
+                Integer.toString(Integer.getInteger('shell.daemon.idleMinutes', DEFAULT_IDLE_MINUTES))])
+
+        project.logger.lifecycle("Starting the PortalShell daemon, see ${logFile} for its output")
+        Process process = new ProcessBuilder(command)
+                .directory(project.rootProject.projectDir)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start()
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MINUTES * 60 * 1000L
+        while (!stateFile.exists()) {
+            if (!process.alive) {
+                throw new GradleException("The PortalShell daemon failed to start, see ${logFile}")
+            }
+            if (System.currentTimeMillis() > deadline) {
+                process.destroy()
+                throw new GradleException("The PortalShell daemon did not start within " +
+                        "${STARTUP_TIMEOUT_MINUTES} minutes, see ${logFile}")
+            }
+            Thread.sleep(250)
+        }
+        Properties state = readState()
+        project.logger.lifecycle("PortalShell daemon started, the portal context took " +
+                "${state.getProperty('startupMillis')} ms to bootstrap")
+        return state
+    }
+
+    /**
+     * @return the state of the running daemon, null if there is none or it does not answer
+     */
+    private Properties readState() {
+        if (!stateFile.exists()) {
+            return null
+        }
+        Properties state = new Properties()
+        stateFile.withInputStream { state.load(it) }
+        try {
+            new Socket(InetAddress.loopbackAddress, state.getProperty('port') as int).close()
+            return state
+        } catch (IOException e) {
+            // Left behind by a daemon that was killed
+            stateFile.delete()
+            return null
+        }
+    }
+
+    private static int send(Properties state, String command, List<String> lines, Closure output) {
+        Socket socket = new Socket(InetAddress.loopbackAddress, state.getProperty('port') as int)
+        try {
+            Writer writer = new OutputStreamWriter(socket.outputStream, StandardCharsets.UTF_8)
+            writer.write("${state.getProperty('token')}\n${command}\n")
+            lines.each { writer.write(it + '\n') }
+            writer.write('\n')
+            writer.flush()
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.inputStream, StandardCharsets.UTF_8))
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(PortalShellDaemon.STATUS_PREFIX)) {
+                    return line.substring(PortalShellDaemon.STATUS_PREFIX.length()) as int
+                }
+                output(line)
+            }
+            throw new GradleException('The PortalShell daemon closed the connection unexpectedly')
+        } finally {
+            socket.close()
+        }
+    }
+
+    /**
+     * @return a fingerprint of the deployed webapp and the portal configuration, which changes
+     * whenever either is redeployed or edited
+     */
+    private String fingerprint() {
+        long count = 0
+        long lastModified = 0
+        PortalShellInvoker.fingerprintedFiles(project).each { File root ->
+            if (root.exists()) {
+                root.eachFileRecurse { File file ->
+                    count++
+                    lastModified = Math.max(lastModified, file.lastModified())
+                }
+            }
+        }
+        return "${count}-${lastModified}"
+    }
+
+}
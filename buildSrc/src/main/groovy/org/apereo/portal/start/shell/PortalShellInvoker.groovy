@@ -1,29 +1,48 @@
 package org.apereo.portal.start.shell
 
+import java.util.concurrent.TimeUnit
 import org.gradle.api.Project
 
 /**
  * This class knows how to invoke org.apereo.portal.shell.PortalShell within the overlays:uPortal
  * project.  (It can't do anything in any other project.)
+ *
+ * Scripts run on the warm {@link PortalShellDaemon} when one is running (or -Dshell.daemon=true
+ * is passed), and in a freshly forked JVM otherwise.  How long each takes is reported, along with
+ * the last run of the other kind, so the difference is visible.
  */
 class PortalShellInvoker {
 
+    /** False to always fork a new JVM, e.g. for scripts that recreate the database schema */
+    boolean useDaemon = true
+
     void invoke(Project project, String scriptLocation, String... args) {
-        File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
-        File deployDir = new File (serverBase, "webapps/${project.name}")
+        PortalShellDaemonClient daemon = new PortalShellDaemonClient(project)
+        boolean warm = useDaemon && daemon.isEnabled()
+
+        long start = System.nanoTime()
+        if (warm) {
+            daemon.run(scriptLocation, args)
+        } else {
+            invokeCold(project, scriptLocation, args)
+        }
+        reportTiming(project, warm, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+    }
+
+    private void invokeCold(Project project, String scriptLocation, String... args) {
+        List<String> shellClasspath = classpath(project)
+        Map<String,String> shellSystemProperties = systemProperties(project)
 
         project.ant.setLifecycleLogLevel('INFO')
         project.ant.java(fork: true, failonerror: true, dir: project.rootProject.projectDir, classname: 'org.apereo.portal.shell.PortalShell') {
             classpath {
-                pathelement(location: "${deployDir}/WEB-INF/classes")
-                pathelement(location: "${deployDir}/WEB-INF/lib/*")
-                project.configurations.shell.files.each {
-                    pathelement(location: it.absolutePath)
+                shellClasspath.each {
+                    pathelement(location: it)
                 }
             }
-            sysproperty(key: 'portal.home', value: project.rootProject.ext['buildProperties'].getProperty('portal.home'))
-            sysproperty(key: 'logback.configurationFile', value: 'command-line.logback.xml')
-            sysproperty(key: 'java.awt.headless', value: 'true')
+            shellSystemProperties.each { key, value ->
+                sysproperty(key: key, value: value)
+            }
             arg(value: '-s')
             arg(value: scriptLocation)
             args.each {
@@ -32,6 +51,68 @@ class PortalShellInvoker {
         }
     }
 
+    /**
+     * Logs how long the script took, and how long the last script of the other kind (warm or
+     * cold) took for comparison.
+     */
+    private static void reportTiming(Project project, boolean warm, long millis) {
+        File timingsFile = new File(project.buildDir, 'shell/timings.properties')
+        Properties timings = new Properties()
+        if (timingsFile.exists()) {
+            timingsFile.withInputStream { timings.load(it) }
+        }
+        String kind = warm ? 'warm' : 'cold'
+        String otherKind = warm ? 'cold' : 'warm'
+        timings.setProperty(kind, Long.toString(millis))
+        timingsFile.parentFile.mkdirs()
+        timingsFile.withOutputStream { timings.store(it, 'Duration of the last PortalShell script, in ms') }
+
+        String message = String.format('PortalShell script ran in %.1f s (%s)', millis / 1000.0,
+                warm ? 'warm daemon' : 'cold JVM')
+        String other = timings.getProperty(otherKind)
+        if (other != null) {
+            message += String.format(';  the last %s run took %.1f s', otherKind, (other as long) / 1000.0)
+        }
+        project.logger.lifecycle(message)
+    }
+
+    /**
+     * @return the classpath the PortalShell runs with:  the deployed webapp and the shell
+     * configuration
+     */
+    static List<String> classpath(Project project) {
+        File deployDir = deployDir(project)
+        List<String> result = ["${deployDir}/WEB-INF/classes", "${deployDir}/WEB-INF/lib/*"].collect { it.toString() }
+        project.configurations.shell.files.each {
+            result.add(it.absolutePath)
+        }
+        return result
+    }
+
+    static Map<String,String> systemProperties(Project project) {
+        return [
+                'portal.home': project.rootProject.ext['buildProperties'].getProperty('portal.home'),
+                'logback.configurationFile': 'command-line.logback.xml',
+                'java.awt.headless': 'true'
+        ]
+    }
+
+    /**
+     * @return the files a running PortalShell depends on:  the deployed webapp and portal.home
+     */
+    static List<File> fingerprintedFiles(Project project) {
+        return [new File(deployDir(project), 'WEB-INF'),
+                project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('portal.home'))]
+    }
+
+    /**
+     * @return the directory the uPortal webapp is deployed to
+     */
+    static File deployDir(Project project) {
+        File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
+        return new File (serverBase, "webapps/${project.name}")
+    }
+
     static String createGroovySafePath(String rawPath) {
         return rawPath.replaceAll('\\\\', '/')
     }
@@ -0,0 +1,120 @@
+package org.apereo.portal.start.tomcat
+
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import org.gradle.api.GradleException
+
+/**
+ * Brings an exploded webapp directory up to date with a WAR file, touching only what changed.
+ * An entry is rewritten when the deployed file has a different size or CRC-32 than the entry in
+ * the WAR;  deployed files that are no longer in the WAR are deleted.  Files are written next to
+ * their destination and moved into place, so a running Tomcat never reads a half-written file.
+ */
+class WarSynchronizer {
+
+    private static final String TEMP_SUFFIX = '.sync-tmp'
+
+    private final File warFile
+    private final File deployDir
+
+    /** Files left as they were */
+    int unchangedFiles = 0
+
+    /** Files written, and their total size */
+    int writtenFiles = 0
+    long writtenBytes = 0
+
+    /** Files deleted because they are no longer in the WAR */
+    int deletedFiles = 0
+
+    WarSynchronizer(File warFile, File deployDir) {
+        this.warFile = warFile
+        this.deployDir = deployDir
+    }
+
+    void sync() {
+        deployDir.mkdirs()
+        String deployPath = deployDir.canonicalPath + File.separator
+        Set<String> entryPaths = new HashSet<>()
+        byte[] buffer = new byte[64 * 1024]
+
+        new ZipFile(warFile).withCloseable { ZipFile war ->
+            war.entries().each { ZipEntry entry ->
+                File target = new File(deployDir, entry.name)
+                if (!target.canonicalPath.startsWith(deployPath)) {
+                    throw new GradleException("${warFile} contains an entry outside the webapp:  ${entry.name}")
+                }
+                entryPaths.add(target.canonicalPath)
+                if (entry.isDirectory()) {
+                    target.mkdirs()
+                } else if (isUnchanged(target, entry, buffer)) {
+                    unchangedFiles++
+                } else {
+                    write(war, entry, target, buffer)
+                    writtenFiles++
+                    writtenBytes += target.length()
+                }
+            }
+        }
+
+        deleteRemoved(deployDir, entryPaths)
+    }
+
+    @Override
+    String toString() {
+        return String.format('%d file(s) written (%.1f MB), %d unchanged, %d deleted',
+                writtenFiles, writtenBytes / 1048576.0, unchangedFiles, deletedFiles)
+    }
+
+    private static boolean isUnchanged(File target, ZipEntry entry, byte[] buffer) {
+        if (!target.isFile() || entry.size < 0 || target.length() != entry.size) {
+            return false
+        }
+        CRC32 crc = new CRC32()
+        target.withInputStream { input ->
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                crc.update(buffer, 0, read)
+            }
+        }
+        return crc.value == entry.crc
+    }
+
+    private static void write(ZipFile war, ZipEntry entry, File target, byte[] buffer) {
+        target.parentFile.mkdirs()
+        File temp = new File(target.parentFile, target.name + TEMP_SUFFIX)
+        temp.withOutputStream { output ->
+            war.getInputStream(entry).withStream { input ->
+                for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                    output.write(buffer, 0, read)
+                }
+            }
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+    }
+
+    /**
+     * Deletes the files and directories under the directory that are not in the WAR.
+     */
+    private void deleteRemoved(File dir, Set<String> entryPaths) {
+        dir.listFiles().each { File file ->
+            if (file.isDirectory()) {
+                deleteRemoved(file, entryPaths)
+                if (!entryPaths.contains(file.canonicalPath) && file.list().length == 0) {
+                    file.delete()
+                }
+            } else if (!entryPaths.contains(file.canonicalPath)) {
+                file.delete()
+                deletedFiles++
+            }
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+package org.apereo.portal.start.shell;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps a PortalShell warm between Gradle data tasks.  The daemon bootstraps the portal's Spring
+ * application context once, then runs the Groovy scripts the build sends it over a loopback socket
+ * with the same <code>portalShellBuildHelper</code> binding the PortalShell provides.  Requests are
+ * handled one at a time;  the output of each script is streamed back to the build.
+ *
+ * Once the context is ready the daemon writes a state file (readable only by its owner) holding the
+ * port, a random token every request must start with, and the fingerprint of the deployed webapp
+ * it was started for.  It exits when asked to, or after being idle for the given time.
+ *
+ * The portal (or another PortalShell) may change the database between two scripts, so the
+ * Hibernate second-level and query caches, and the portal's own Ehcache caches, are cleared before
+ * each script runs;  otherwise the daemon would import against entities it cached earlier.
+ *
+ * This class runs in the forked JVM with the deployed uPortal webapp on the classpath, so it only
+ * depends on the JDK and reaches Spring and Groovy reflectively.
+ *
+ * Protocol:  the client sends the token, then either <code>STOP</code> or <code>RUN</code>
+ * followed by the script path and its arguments, one per line, and an empty line.  The daemon
+ * replies with the script output followed by a line starting with {@link #STATUS_PREFIX} and the
+ * exit status.
+ */
+public class PortalShellDaemon {
+
+    static final String STATUS_PREFIX = "\u0000PortalShellDaemon status ";
+
+    private static final String CONTEXT_LOCATOR_CLASS =
+            "org.apereo.portal.spring.locator.PortalApplicationContextLocator";
+    private static final String HELPER_BEAN = "portalShellBuildHelper";
+    private static final String ENTITY_MANAGER_FACTORY_CLASS =
+            "javax.persistence.EntityManagerFactory";
+    private static final String CACHE_MANAGER_CLASS = "net.sf.ehcache.CacheManager";
+
+    private final Object applicationContext;
+    private final Object portalShellBuildHelper;
+    private final String token;
+
+    PortalShellDaemon(Object applicationContext, Object portalShellBuildHelper, String token) {
+        this.applicationContext = applicationContext;
+        this.portalShellBuildHelper = portalShellBuildHelper;
+        this.token = token;
+    }
+
+    /**
+     * @param args the state file, the fingerprint of the deployed webapp, and the idle time in
+     *     minutes after which the daemon exits
+     */
+    public static void main(String[] args) throws Exception {
+        final File stateFile = new File(args[0]);
+        final String fingerprint = args[1];
+        final int idleMillis = Integer.parseInt(args[2]) * 60 * 1000;
+
+        final long start = System.nanoTime();
+        final Object applicationContext =
+                Class.forName(CONTEXT_LOCATOR_CLASS).getMethod("getApplicationContext").invoke(null);
+        final Object helper =
+                applicationContext
+                        .getClass()
+                        .getMethod("getBean", String.class)
+                        .invoke(applicationContext, HELPER_BEAN);
+        final long startupMillis = (System.nanoTime() - start) / 1000000;
+
+        final byte[] tokenBytes = new byte[16];
+        new SecureRandom().nextBytes(tokenBytes);
+        final StringBuilder token = new StringBuilder();
+        for (final byte b : tokenBytes) {
+            token.append(String.format("%02x", b));
+        }
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(idleMillis);
+
+            final Properties state = new Properties();
+            state.setProperty("port", Integer.toString(server.getLocalPort()));
+            state.setProperty("token", token.toString());
+            state.setProperty("fingerprint", fingerprint);
+            state.setProperty("startupMillis", Long.toString(startupMillis));
+            writeState(stateFile, state);
+            System.out.println(
+                    "PortalShell daemon listening on port "
+                            + server.getLocalPort()
+                            + ", context started in "
+                            + startupMillis
+                            + " ms");
+
+            final PortalShellDaemon daemon =
+                    new PortalShellDaemon(applicationContext, helper, token.toString());
+            try {
+                boolean running = true;
+                while (running) {
+                    try (Socket socket = server.accept()) {
+                        running = daemon.handle(socket);
+                    } catch (SocketTimeoutException e) {
+                        System.out.println("PortalShell daemon idle, exiting");
+                        running = false;
+                    }
+                }
+            } finally {
+                stateFile.delete();
+            }
+        }
+        System.exit(0);
+    }
+
+    /** @return false if the daemon should stop */
+    boolean handle(Socket socket) throws IOException {
+        final BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        if (!this.token.equals(reader.readLine())) {
+            return true;
+        }
+
+        final String command = reader.readLine();
+        final List<String> lines = new ArrayList<>();
+        for (String line = reader.readLine();
+                line != null && !line.isEmpty();
+                line = reader.readLine()) {
+            lines.add(line);
+        }
+
+        final PrintStream out =
+                new PrintStream(socket.getOutputStream(), true, StandardCharsets.UTF_8.name());
+        if ("STOP".equals(command)) {
+            out.println(STATUS_PREFIX + 0);
+            return false;
+        }
+        if (!"RUN".equals(command) || lines.isEmpty()) {
+            out.println("Unknown request: " + command);
+            out.println(STATUS_PREFIX + 2);
+            return true;
+        }
+
+        final PrintStream originalOut = System.out;
+        final PrintStream originalErr = System.err;
+        int status = 0;
+        System.setOut(out);
+        System.setErr(out);
+        try {
+            clearCaches();
+            runScript(
+                    new File(lines.get(0)), lines.subList(1, lines.size()).toArray(new String[0]));
+        } catch (Throwable t) {
+            final Throwable cause = t instanceof InvocationTargetException ? t.getCause() : t;
+            cause.printStackTrace(out);
+            status = 1;
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
+        out.println(STATUS_PREFIX + status);
+        return true;
+    }
+
+    /**
+     * Evicts everything the portal has cached from the database:  the second-level and query
+     * caches of each entity manager factory, then every Ehcache cache manager (which also holds the
+     * portal's own caches).  Types the portal does not use are skipped.
+     */
+    void clearCaches() throws Exception {
+        for (final Object factory : beansOfType(ENTITY_MANAGER_FACTORY_CLASS)) {
+            // JPA only evicts entities, so go through the Hibernate SessionFactory if there is one
+            final Method getSessionFactory = findMethod(factory.getClass(), "getSessionFactory");
+            if (getSessionFactory != null) {
+                final Object sessionFactory = getSessionFactory.invoke(factory);
+                final Object cache =
+                        sessionFactory.getClass().getMethod("getCache").invoke(sessionFactory);
+                for (final String evict :
+                        new String[] {
+                            "evictEntityRegions", "evictCollectionRegions", "evictQueryRegions"
+                        }) {
+                    cache.getClass().getMethod(evict).invoke(cache);
+                }
+            } else {
+                final Object cache = factory.getClass().getMethod("getCache").invoke(factory);
+                cache.getClass().getMethod("evictAll").invoke(cache);
+            }
+        }
+        for (final Object cacheManager : beansOfType(CACHE_MANAGER_CLASS)) {
+            cacheManager.getClass().getMethod("clearAll").invoke(cacheManager);
+        }
+    }
+
+    private Collection<?> beansOfType(String className) throws Exception {
+        final Class<?> type;
+        try {
+            type = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            return Collections.emptyList();
+        }
+        final Object beans =
+                this.applicationContext
+                        .getClass()
+                        .getMethod("getBeansOfType", Class.class)
+                        .invoke(this.applicationContext, type);
+        return ((Map<?, ?>) beans).values();
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private void runScript(File script, String[] args) throws Exception {
+        final Class<?> bindingClass = Class.forName("groovy.lang.Binding");
+        final Object binding = bindingClass.newInstance();
+        bindingClass
+                .getMethod("setVariable", String.class, Object.class)
+                .invoke(binding, HELPER_BEAN, this.portalShellBuildHelper);
+
+        final Class<?> shellClass = Class.forName("groovy.lang.GroovyShell");
+        final Object shell = shellClass.getConstructor(bindingClass).newInstance(binding);
+        final Method run = shellClass.getMethod("run", File.class, String[].class);
+        run.invoke(shell, script, args);
+    }
+
+    private static void writeState(File stateFile, Properties state) throws IOException {
+        final File tempFile = new File(stateFile.getPath() + ".tmp");
+        tempFile.delete();
+        tempFile.createNewFile();
+        tempFile.setReadable(false, false);
+        tempFile.setWritable(false, false);
+        tempFile.setReadable(true, true);
+        tempFile.setWritable(true, true);
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            state.store(out, "PortalShell daemon");
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            stateFile.delete();
+            if (!tempFile.renameTo(stateFile)) {
+                throw new IOException("Unable to write " + stateFile);
+            }
+        }
+    }
+}
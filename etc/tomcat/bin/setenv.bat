@@ -28,3 +28,11 @@ if not "%PORTAL_HOME%" == "" goto gotPortalHome
 set "PORTAL_HOME=%CATALINA_BASE%\portal"
 :gotPortalHome
 set CATALINA_OPTS=%CATALINA_OPTS% -Dportal.home=%PORTAL_HOME%
+
+rem Map the classes recorded by the tomcatCdsTrain Gradle task into memory instead of loading them, if
+rem the archive exists;  -Xshare:auto ignores an archive the running JDK cannot use
+set "CDS_ARCHIVE=%CATALINA_BASE%\cds\tomcat.jsa"
+if "%USE_CDS_ARCHIVE%" == "false" goto noCdsArchive
+if not exist "%CDS_ARCHIVE%" goto noCdsArchive
+set CATALINA_OPTS=%CATALINA_OPTS% -XX:SharedArchiveFile=%CDS_ARCHIVE% -Xshare:auto
+:noCdsArchive
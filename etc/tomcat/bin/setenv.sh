@@ -24,3 +24,11 @@ if [ $? -eq 1 ]
 then
     CATALINA_OPTS="$CATALINA_OPTS -XX:+UseG1GC"
 fi
+
+# Map the classes recorded by the tomcatCdsTrain Gradle task into memory instead of loading them, if
+# the archive exists;  -Xshare:auto ignores an archive the running JDK cannot use
+CDS_ARCHIVE="$CATALINA_BASE/cds/tomcat.jsa"
+if [ -f "$CDS_ARCHIVE" ] && [ "$USE_CDS_ARCHIVE" != "false" ]
+then
+    CATALINA_OPTS="$CATALINA_OPTS -XX:SharedArchiveFile=$CDS_ARCHIVE -Xshare:auto"
+fi
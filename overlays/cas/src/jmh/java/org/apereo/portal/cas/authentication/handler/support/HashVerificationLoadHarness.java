@@ -0,0 +1,178 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+
+/**
+ * Load test harness for {@link PersonDirAuthenticationHandler} that drives logins from more
+ * concurrent clients than there are processors and reports login latency percentiles, with hashes
+ * verified on the request threads and then on a {@link HashVerificationExecutor}.
+ *
+ * <p>Not a unit test, run it with <code>gradlew :overlays:cas:hashLoadTest</code>. System
+ * properties: <code>clients</code> (default 8 per processor), <code>seconds</code> (default 10),
+ * <code>threads</code>, <code>queueSize</code> and <code>maxWaitMillis</code> for the executor.
+ *
+ */
+public class HashVerificationLoadHarness {
+    private static final String SHA256_HASH =
+            "(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA==";
+
+    public static void main(String[] args) throws Exception {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int clients = Integer.getInteger("clients", processors * 8);
+        final int seconds = Integer.getInteger("seconds", 10);
+        final int threads = Integer.getInteger("threads", processors);
+        final int queueSize =
+                Integer.getInteger(
+                        "queueSize",
+                        threads * HashVerificationExecutor.DEFAULT_QUEUE_SIZE_PER_THREAD);
+        final long maxWaitMillis =
+                Long.getLong("maxWaitMillis", HashVerificationExecutor.DEFAULT_MAX_WAIT_MILLIS);
+
+        System.out.println(
+                "Driving logins from " + clients + " clients for " + seconds + "s per run");
+
+        final PersonDirAuthenticationHandler inline = new PersonDirAuthenticationHandler();
+        inline.setUserPasswordDao(new FixedUserPasswordDao());
+        report("inline", run(inline, clients, seconds));
+
+        final HashVerificationExecutor executor =
+                new HashVerificationExecutor(threads, queueSize, maxWaitMillis);
+        try {
+            final PersonDirAuthenticationHandler pooled = new PersonDirAuthenticationHandler();
+            pooled.setUserPasswordDao(new FixedUserPasswordDao());
+            pooled.setHashVerificationExecutor(executor);
+            report(
+                    "executor (" + threads + " threads, queue " + queueSize + ")",
+                    run(pooled, clients, seconds));
+            System.out.println(
+                    String.format(
+                            "  rejected %d, timed out %d, mean wait %.2fms, max wait %.2fms,"
+                                    + " mean verify %.2fms",
+                            executor.getRejections(),
+                            executor.getTimeouts(),
+                            executor.getWaitTimes().getMeanMillis(),
+                            executor.getWaitTimes().getMaxNanos() / 1000000.0,
+                            executor.getVerifyTimes().getMeanMillis()));
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    private static List<long[]> run(
+            final PersonDirAuthenticationHandler handler, int clients, int seconds)
+            throws Exception {
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            final List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+            for (int i = 0; i < clients; i++) {
+                results.add(
+                        pool.submit(
+                                new Callable<long[]>() {
+                                    public long[] call() throws Exception {
+                                        return login(handler, end);
+                                    }
+                                }));
+            }
+            final List<long[]> latencies = new ArrayList<long[]>();
+            for (final Future<long[]> result : results) {
+                latencies.add(result.get());
+            }
+            return latencies;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** @return latencies in nanoseconds, negative for failed logins */
+    private static long[] login(PersonDirAuthenticationHandler handler, long end)
+            throws Exception {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("student");
+        credentials.setPassword("wombat");
+
+        long[] latencies = new long[1024];
+        int count = 0;
+        while (System.nanoTime() < end) {
+            final long start = System.nanoTime();
+            final boolean authenticated = handler.authenticateUsernamePasswordInternal(credentials);
+            final long latency = System.nanoTime() - start;
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = authenticated ? latency : -latency;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static void report(String name, List<long[]> results) {
+        int total = 0;
+        for (final long[] latencies : results) {
+            total += latencies.length;
+        }
+        final long[] all = new long[total];
+        int failed = 0;
+        int i = 0;
+        for (final long[] latencies : results) {
+            for (final long latency : latencies) {
+                if (latency < 0) {
+                    failed++;
+                }
+                all[i++] = Math.abs(latency);
+            }
+        }
+        Arrays.sort(all);
+
+        System.out.println(
+                String.format(
+                        "%s: %d logins, %d failed, p50 %.2fms, p99 %.2fms, max %.2fms",
+                        name,
+                        total,
+                        failed,
+                        percentile(all, 0.50),
+                        percentile(all, 0.99),
+                        total == 0 ? 0 : all[total - 1] / 1000000.0));
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1000000.0;
+    }
+
+    private static class FixedUserPasswordDao implements UserPasswordDao {
+        public String getPasswordHash(String userName) {
+            return SHA256_HASH;
+        }
+
+        public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Login throughput of {@link PersonDirAuthenticationHandler} for legacy MD5 and SHA-256 password
+ * hashes, from one thread and from several concurrent threads, with hashes verified on the calling
+ * thread or on a {@link HashVerificationExecutor}.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordVerificationBenchmark {
+    private static final String MD5_HASH = "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt";
+    private static final String SHA256_HASH =
+            "(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA==";
+
+    @Param({"MD5", "SHA256"})
+    public String scheme;
+
+    @Param({"false", "true"})
+    public boolean executor;
+
+    private PersonDirAuthenticationHandler authenticationHandler;
+    private HashVerificationExecutor hashVerificationExecutor;
+    private UsernamePasswordCredentials credentials;
+
+    @Setup
+    public void setUp() {
+        final boolean md5 = "MD5".equals(this.scheme);
+        final String passwordHash = md5 ? MD5_HASH : SHA256_HASH;
+
+        this.authenticationHandler = new PersonDirAuthenticationHandler();
+        this.authenticationHandler.setUserPasswordDao(
+                new UserPasswordDao() {
+                    public String getPasswordHash(String userName) {
+                        return passwordHash;
+                    }
+
+                    public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+        if (this.executor) {
+            this.hashVerificationExecutor = new HashVerificationExecutor();
+            this.authenticationHandler.setHashVerificationExecutor(this.hashVerificationExecutor);
+        }
+
+        this.credentials = new UsernamePasswordCredentials();
+        this.credentials.setUsername(md5 ? "admin" : "student");
+        this.credentials.setPassword(md5 ? "admin" : "wombat");
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.hashVerificationExecutor != null) {
+            this.hashVerificationExecutor.destroy();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean authenticate() throws Exception {
+        return this.authenticationHandler.authenticateUsernamePasswordInternal(this.credentials);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean authenticateConcurrently() throws Exception {
+        return this.authenticationHandler.authenticateUsernamePasswordInternal(this.credentials);
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * Password hash lookups through {@link PortalPersonDirUserPasswordDao} against an in-memory HSQLDB
+ * UP_PERSON_DIR table, directly and through a {@link CachingUserPasswordDao}.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserPasswordDaoBenchmark {
+    private static final int USERS = 10000;
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private JdbcTemplate jdbcTemplate;
+    private UserPasswordDao userPasswordDao;
+    private List<String> batch;
+
+    @Setup
+    public void setUp() {
+        final DataSource dataSource =
+                new SimpleDriverDataSource(
+                        new org.hsqldb.jdbcDriver(), "jdbc:hsqldb:mem:CasDaoBenchmark", "sa", "");
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_DIR (USER_NAME VARCHAR(1000), ENCRPTD_PSWD VARCHAR(1000))");
+        this.jdbcTemplate.execute(
+                "CREATE UNIQUE INDEX UPPD_USER_NAME ON UP_PERSON_DIR (USER_NAME)");
+        for (int i = 0; i < USERS; i++) {
+            this.jdbcTemplate.update(
+                    "INSERT INTO UP_PERSON_DIR VALUES (?, ?)",
+                    "user" + i,
+                    "(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA==");
+        }
+
+        final PortalPersonDirUserPasswordDao portalPersonDirUserPasswordDao =
+                new PortalPersonDirUserPasswordDao();
+        portalPersonDirUserPasswordDao.setDataSource(dataSource);
+        if (this.cached) {
+            final CachingUserPasswordDao cachingUserPasswordDao = new CachingUserPasswordDao();
+            cachingUserPasswordDao.setUserPasswordDao(portalPersonDirUserPasswordDao);
+            this.userPasswordDao = cachingUserPasswordDao;
+        } else {
+            this.userPasswordDao = portalPersonDirUserPasswordDao;
+        }
+
+        this.batch = new ArrayList<String>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.batch.add("user" + (i * (USERS / BATCH_SIZE)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    /** Cycles through every user so the cache sees the same mix of hits as a busy server. */
+    @State(Scope.Thread)
+    public static class UserNames {
+        private final String[] userNames = new String[USERS];
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            for (int i = 0; i < USERS; i++) {
+                this.userNames[i] = "user" + i;
+            }
+        }
+
+        String next() {
+            final String userName = this.userNames[this.next];
+            this.next = (this.next + 1) % USERS;
+            return userName;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getPasswordHash(UserNames userNames) {
+        return this.userPasswordDao.getPasswordHash(userNames.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Map<String, String> getPasswordHashes() {
+        return this.userPasswordDao.getPasswordHashes(this.batch);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.easymock.EasyMock;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.services.DefaultServicesManagerImpl;
+import org.jasig.cas.services.InMemoryServiceRegistryDaoImpl;
+import org.jasig.cas.services.RegexRegisteredService;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.web.support.ArgumentExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of resolving the theme of a service URL with and without the service theme
+ * cache, for growing numbers of registered services. Run with <code>gradlew :overlays:cas:jmh
+ * </code>.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceThemeResolutionBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int registeredServices;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private ConfigurableUserAgentOverrideThemeResolver themeResolver;
+    private HttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        final List<RegisteredService> services = new ArrayList<RegisteredService>();
+        for (int i = 0; i < this.registeredServices; i++) {
+            final RegexRegisteredService service = new RegexRegisteredService();
+            service.setId(i);
+            service.setName("Service " + i);
+            service.setServiceId("^https://app" + i + "\\.example\\.edu/.*");
+            service.setTheme("cas-theme-" + i);
+            service.setEvaluationOrder(i);
+            services.add(service);
+        }
+        final InMemoryServiceRegistryDaoImpl serviceRegistryDao =
+                new InMemoryServiceRegistryDaoImpl();
+        serviceRegistryDao.setRegisteredServices(services);
+
+        // A service in the middle of the evaluation order
+        final Service service =
+                new SimpleWebApplicationServiceImpl(
+                        "https://app" + this.registeredServices / 2 + ".example.edu/login");
+
+        this.themeResolver = new ConfigurableUserAgentOverrideThemeResolver();
+        this.themeResolver.setServicesManager(new DefaultServicesManagerImpl(serviceRegistryDao));
+        this.themeResolver.setArgumentExtractors(
+                Collections.<ArgumentExtractor>singletonList(
+                        new ArgumentExtractor() {
+                            public Service extractService(HttpServletRequest request) {
+                                return service;
+                            }
+                        }));
+        if (!this.cached) {
+            this.themeResolver.setServiceThemeCacheSize(0);
+        }
+
+        this.request = EasyMock.createNiceMock(HttpServletRequest.class);
+        EasyMock.replay(this.request);
+    }
+
+    @Benchmark
+    public String resolveThemeName() {
+        return this.themeResolver.resolveThemeName(this.request);
+    }
+}
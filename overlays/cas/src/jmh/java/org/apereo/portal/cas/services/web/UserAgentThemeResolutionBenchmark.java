@@ -0,0 +1,159 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services.web;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Theme resolution by {@link ConfigurableUserAgentOverrideThemeResolver} for a realistic mix of
+ * user agents, read from <code>user-agents.txt</code>, against a typical set of mobile overrides.
+ * Compares matching every request against matching once per user agent, and matching expressions
+ * one at a time against matching a combined expression.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserAgentThemeResolutionBenchmark {
+    private static final int REQUESTS = 4096;
+
+    @Param({"0", "5000"})
+    public int userAgentCacheSize;
+
+    @Param({"false", "true"})
+    public boolean combinePatterns;
+
+    private ConfigurableUserAgentOverrideThemeResolver themeResolver;
+    private HttpServletRequest[] requests;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Map<String, String> browserMappings = new LinkedHashMap<String, String>();
+        browserMappings.put(".*iPhone.*", "cas-theme-mobile");
+        browserMappings.put(".*iPod.*", "cas-theme-mobile");
+        browserMappings.put(".*iPad.*", "cas-theme-tablet");
+        browserMappings.put(".*Windows Phone.*", "cas-theme-mobile");
+        browserMappings.put(".*Android.*Mobile.*", "cas-theme-mobile");
+        browserMappings.put(".*Android.*", "cas-theme-tablet");
+        browserMappings.put(".*BlackBerry.*", "cas-theme-mobile");
+        browserMappings.put(".*Opera Mini.*", "cas-theme-mobile");
+
+        this.themeResolver = new ConfigurableUserAgentOverrideThemeResolver();
+        this.themeResolver.setDefaultThemeName("cas-theme-default");
+        this.themeResolver.setOverrides(
+                Collections.singletonMap("cas-theme-default", browserMappings));
+        this.themeResolver.setCombinePatterns(this.combinePatterns);
+        this.themeResolver.setUserAgentCacheSize(this.userAgentCacheSize);
+
+        // Draw requests from the corpus with a Zipf distribution
+        final List<String> userAgents = readUserAgents();
+        final double[] cumulative = new double[userAgents.size()];
+        double total = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        final Random random = new Random(42);
+        this.requests = new HttpServletRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            final double r = random.nextDouble() * total;
+            int index = 0;
+            while (cumulative[index] < r) {
+                index++;
+            }
+            this.requests[i] = createRequest(userAgents.get(index));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RequestIndex {
+        private int next = 0;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String resolveThemeName(RequestIndex index) {
+        final HttpServletRequest request = this.requests[index.next];
+        index.next = (index.next + 1) & (REQUESTS - 1);
+        return this.themeResolver.resolveThemeName(request);
+    }
+
+    private static List<String> readUserAgents() throws IOException {
+        final List<String> userAgents = new ArrayList<String>();
+        final BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                UserAgentThemeResolutionBenchmark.class.getResourceAsStream(
+                                        "/user-agents.txt"),
+                                StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    userAgents.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return userAgents;
+    }
+
+    /** A request that only answers the User-Agent header, without a mock library's overhead */
+    private static HttpServletRequest createRequest(final String userAgent) {
+        return (HttpServletRequest)
+                Proxy.newProxyInstance(
+                        HttpServletRequest.class.getClassLoader(),
+                        new Class<?>[] {HttpServletRequest.class},
+                        new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                if ("getHeader".equals(method.getName())
+                                        && "User-Agent".equalsIgnoreCase((String) args[0])) {
+                                    return userAgent;
+                                }
+                                return null;
+                            }
+                        });
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apereo.portal.cas.util.BoundedExpiringCache;
+
+/**
+ * Caching decorator for a {@link UserPasswordDao}.
+ *
+ * <p>Password hashes are cached for a (short) time-to-live. Users that do not exist are remembered
+ * in a separate negative cache with its own, typically shorter, time-to-live so that repeated
+ * lookups of nonexistent users (e.g. credential stuffing) do not reach the database every time.
+ * Concurrent lookups of the same uncached user share a single query against the delegate.
+ *
+ * <p>A password change made directly in the database is only seen once the cached hash expires.
+ * Updates made through this DAO replace the cached hash immediately.
+ *
+ */
+public class CachingUserPasswordDao implements UpdatableUserPasswordDao {
+
+    /** Default maximum number of password hashes cached */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default time a password hash is cached for, in seconds */
+    public static final long DEFAULT_TIME_TO_LIVE_SECONDS = 60;
+
+    /** Default maximum number of nonexistent users remembered */
+    public static final int DEFAULT_NEGATIVE_MAX_SIZE = 10000;
+
+    /** Default time a nonexistent user is remembered for, in seconds */
+    public static final long DEFAULT_NEGATIVE_TIME_TO_LIVE_SECONDS = 10;
+
+    private final BoundedExpiringCache<String, String> passwordHashes;
+    private final BoundedExpiringCache<String, Boolean> missingUsers;
+    private final ConcurrentMap<String, FutureTask<String>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<String>>();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+
+    private UserPasswordDao userPasswordDao;
+
+    public CachingUserPasswordDao() {
+        this(
+                DEFAULT_MAX_SIZE,
+                DEFAULT_TIME_TO_LIVE_SECONDS,
+                DEFAULT_NEGATIVE_MAX_SIZE,
+                DEFAULT_NEGATIVE_TIME_TO_LIVE_SECONDS);
+    }
+
+    /**
+     * @param maxSize Maximum number of password hashes cached
+     * @param timeToLiveSeconds Time a password hash is cached for
+     * @param negativeMaxSize Maximum number of nonexistent users remembered
+     * @param negativeTimeToLiveSeconds Time a nonexistent user is remembered for
+     */
+    public CachingUserPasswordDao(
+            int maxSize,
+            long timeToLiveSeconds,
+            int negativeMaxSize,
+            long negativeTimeToLiveSeconds) {
+        this(
+                new BoundedExpiringCache<String, String>(maxSize, timeToLiveSeconds * 1000),
+                new BoundedExpiringCache<String, Boolean>(
+                        negativeMaxSize, negativeTimeToLiveSeconds * 1000));
+    }
+
+    CachingUserPasswordDao(
+            BoundedExpiringCache<String, String> passwordHashes,
+            BoundedExpiringCache<String, Boolean> missingUsers) {
+        this.passwordHashes = passwordHashes;
+        this.missingUsers = missingUsers;
+    }
+
+    /** @return the userPasswordDao */
+    public UserPasswordDao getUserPasswordDao() {
+        return this.userPasswordDao;
+    }
+    /** @param userPasswordDao the userPasswordDao to cache lookups for */
+    public void setUserPasswordDao(UserPasswordDao userPasswordDao) {
+        this.userPasswordDao = userPasswordDao;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(final String userName) {
+        if (userName == null) {
+            return this.userPasswordDao.getPasswordHash(userName);
+        }
+
+        final String passwordHash = this.passwordHashes.get(userName);
+        if (passwordHash != null) {
+            return passwordHash;
+        }
+        if (this.missingUsers.get(userName) != null) {
+            return null;
+        }
+
+        final FutureTask<String> load =
+                new FutureTask<String>(
+                        new Callable<String>() {
+                            public String call() {
+                                return loadPasswordHash(userName);
+                            }
+                        });
+        FutureTask<String> existing = this.inFlight.putIfAbsent(userName, load);
+        if (existing == null) {
+            try {
+                load.run();
+            } finally {
+                this.inFlight.remove(userName, load);
+            }
+            existing = load;
+        } else {
+            this.coalescedLoads.incrementAndGet();
+        }
+
+        return getResult(existing);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHashes(java.util.Collection)
+     */
+    public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+        final Map<String, String> result = new HashMap<String, String>();
+        final List<String> uncached = new ArrayList<String>();
+
+        for (final String userName : userNames) {
+            final String passwordHash = this.passwordHashes.get(userName);
+            if (passwordHash != null) {
+                result.put(userName, passwordHash);
+            } else if (this.missingUsers.get(userName) == null) {
+                uncached.add(userName);
+            }
+        }
+
+        if (!uncached.isEmpty()) {
+            this.loads.incrementAndGet();
+            final Map<String, String> loaded = this.userPasswordDao.getPasswordHashes(uncached);
+            for (final String userName : uncached) {
+                final String passwordHash = loaded.get(userName);
+                if (passwordHash != null) {
+                    this.passwordHashes.put(userName, passwordHash);
+                    result.put(userName, passwordHash);
+                } else {
+                    this.missingUsers.put(userName, Boolean.TRUE);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Updates the password hash through the delegate if it is an {@link UpdatableUserPasswordDao}.
+     *
+     * @return true if the password hash was replaced, false if it was not or the delegate does
+     *     not support updates
+     */
+    public boolean updatePasswordHash(
+            String userName, String expectedPasswordHash, String newPasswordHash) {
+        if (!(this.userPasswordDao instanceof UpdatableUserPasswordDao)) {
+            return false;
+        }
+
+        final boolean updated =
+                ((UpdatableUserPasswordDao) this.userPasswordDao)
+                        .updatePasswordHash(userName, expectedPasswordHash, newPasswordHash);
+        if (updated) {
+            this.passwordHashes.put(userName, newPasswordHash);
+        } else {
+            invalidate(userName);
+        }
+        return updated;
+    }
+
+    /** Forgets anything cached for the user, the next lookup goes to the delegate. */
+    public void invalidate(String userName) {
+        this.passwordHashes.remove(userName);
+        this.missingUsers.remove(userName);
+    }
+
+    /** Forgets everything cached. */
+    public void invalidateAll() {
+        this.passwordHashes.clear();
+        this.missingUsers.clear();
+    }
+
+    /** @return number of lookups answered from the password hash cache */
+    public long getHits() {
+        return this.passwordHashes.getHits();
+    }
+
+    /** @return number of lookups answered from the nonexistent user cache */
+    public long getNegativeHits() {
+        return this.missingUsers.getHits();
+    }
+
+    /** @return number of queries made against the delegate */
+    public long getLoads() {
+        return this.loads.get();
+    }
+
+    /** @return number of lookups that waited on a query already made by another thread */
+    public long getCoalescedLoads() {
+        return this.coalescedLoads.get();
+    }
+
+    /** @return number of cached entries evicted because of the size bound or time-to-live */
+    public long getEvictions() {
+        return this.passwordHashes.getEvictions() + this.missingUsers.getEvictions();
+    }
+
+    private String loadPasswordHash(String userName) {
+        this.loads.incrementAndGet();
+        final String passwordHash = this.userPasswordDao.getPasswordHash(userName);
+        if (passwordHash != null) {
+            this.passwordHashes.put(userName, passwordHash);
+        } else {
+            this.missingUsers.put(userName, Boolean.TRUE);
+        }
+        return passwordHash;
+    }
+
+    private static String getResult(FutureTask<String> load) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    // Finish waiting for the shared query, the caller has nothing else to do
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to load password hash", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import org.apereo.portal.cas.metrics.Counter;
+import org.apereo.portal.cas.metrics.MetricRegistry;
+import org.apereo.portal.cas.metrics.Timer;
+
+/**
+ * Runs password hash verification on a dedicated, bounded pool of threads instead of the request
+ * thread, so a flood of logins can not occupy every container thread and starve other CAS
+ * endpoints such as ticket validation.
+ *
+ * <p>The pool defaults to one thread per available processor with a bounded queue in front of it.
+ * A verification that can not be queued, or that does not complete within the maximum wait, fails
+ * immediately and the login is treated as an authentication failure. A verification whose caller
+ * gave up while it was still queued is never run.
+ *
+ * <p>The queue depth, the time verifications wait in the queue and take to run, and the number of
+ * rejected and timed out verifications are recorded in the {@link MetricRegistry}, so they are
+ * exported through JMX and at /metrics.
+ *
+ */
+public class HashVerificationExecutor {
+    /** Default number of queued verifications per verification thread */
+    public static final int DEFAULT_QUEUE_SIZE_PER_THREAD = 8;
+
+    /** Default time a login waits for its verification, in milliseconds */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 2000;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitNanos;
+
+    private Timer waitTimer;
+    private Timer verifyTimer;
+    private Counter rejections;
+    private Counter timeouts;
+
+    public HashVerificationExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @param threads Number of verification threads */
+    public HashVerificationExecutor(int threads) {
+        this(threads, threads * DEFAULT_QUEUE_SIZE_PER_THREAD, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param threads Number of verification threads
+     * @param queueSize Maximum number of verifications waiting for a thread
+     * @param maxWaitMillis Maximum time a login waits for its verification, queueing included
+     */
+    public HashVerificationExecutor(int threads, int queueSize, long maxWaitMillis) {
+        if (threads < 1 || queueSize < 1 || maxWaitMillis < 1) {
+            throw new IllegalArgumentException(
+                    "threads, queueSize and maxWaitMillis must all be positive");
+        }
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        final int poolNumber = POOL_NUMBER.incrementAndGet();
+        this.executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueSize),
+                        new ThreadFactory() {
+                            private final AtomicInteger threadNumber = new AtomicInteger();
+
+                            public Thread newThread(Runnable r) {
+                                final Thread thread =
+                                        new Thread(
+                                                r,
+                                                "hash-verification-"
+                                                        + poolNumber
+                                                        + "-"
+                                                        + this.threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        },
+                        new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+        setMetricRegistry(MetricRegistry.getDefault());
+    }
+
+    /**
+     * @param metricRegistry registry to record the pool metrics in, defaults to {@link
+     *     MetricRegistry#getDefault()}
+     */
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        metricRegistry.gauge(
+                "cas.authentication.executor.queue",
+                "Password hash verifications waiting for a verification thread",
+                new LongSupplier() {
+                    public long getAsLong() {
+                        return getQueueDepth();
+                    }
+                });
+        this.waitTimer =
+                metricRegistry.timer(
+                        "cas.authentication.executor.wait",
+                        "Time password hash verifications wait for a verification thread");
+        this.verifyTimer =
+                metricRegistry.timer(
+                        "cas.authentication.executor.verify",
+                        "Time spent verifying password hashes on the verification threads");
+        this.rejections =
+                metricRegistry.counter(
+                        "cas.authentication.executor.rejected",
+                        "Password hash verifications rejected because the queue was full");
+        this.timeouts =
+                metricRegistry.counter(
+                        "cas.authentication.executor.timeouts",
+                        "Password hash verifications not completed within the maximum wait");
+    }
+
+    /**
+     * Verifies the password on a verification thread, waiting at most the maximum wait.
+     *
+     * @return true if the password matches the stored hash, false if it does not or the
+     *     verification was rejected or timed out
+     */
+    public boolean verify(
+            final PasswordHashScheme scheme,
+            final String cleartextPassword,
+            final String storedHash) {
+        final Timer waitTimer = this.waitTimer;
+        final Timer verifyTimer = this.verifyTimer;
+        final long submitted = System.nanoTime();
+        final FutureTask<Boolean> result =
+                new FutureTask<Boolean>(
+                        new Callable<Boolean>() {
+                            public Boolean call() {
+                                final long started = System.nanoTime();
+                                waitTimer.record(started - submitted);
+                                try {
+                                    return scheme.checkPassword(cleartextPassword, storedHash);
+                                } finally {
+                                    verifyTimer.record(System.nanoTime() - started);
+                                }
+                            }
+                        });
+        try {
+            this.executor.execute(result);
+        } catch (RejectedExecutionException e) {
+            this.rejections.increment();
+            return false;
+        }
+
+        try {
+            final long remainingNanos = this.maxWaitNanos - (System.nanoTime() - submitted);
+            return result.get(remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            this.timeouts.increment();
+            abandon(result);
+            return false;
+        } catch (InterruptedException e) {
+            abandon(result);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Password hash verification failed", cause);
+        }
+    }
+
+    /** Cancels a verification nobody waits for and frees its place in the queue */
+    private void abandon(FutureTask<Boolean> verification) {
+        verification.cancel(false);
+        this.executor.remove(verification);
+    }
+
+    /** Stops the verification threads, called by Spring when the context is closed. */
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    /** @return number of verification threads */
+    public int getThreads() {
+        return this.executor.getCorePoolSize();
+    }
+
+    /** @return maximum time a login waits for its verification, in milliseconds */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos);
+    }
+
+    /** @return number of verifications waiting for a thread */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    /** @return number of verifications rejected because the queue was full */
+    public long getRejections() {
+        return this.rejections.getCount();
+    }
+
+    /** @return number of verifications not completed within the maximum wait */
+    public long getTimeouts() {
+        return this.timeouts.getCount();
+    }
+
+    /** @return time verifications spent queued before a thread picked them up */
+    public Timer getWaitTimes() {
+        return this.waitTimer;
+    }
+
+    /** @return time spent hashing passwords */
+    public Timer getVerifyTimes() {
+        return this.verifyTimer;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.Collection;
+import java.util.Map;
+import org.apereo.portal.cas.metrics.Counter;
+import org.apereo.portal.cas.metrics.MetricRegistry;
+import org.apereo.portal.cas.metrics.Timer;
+
+/**
+ * Decorator for a {@link UserPasswordDao} recording how long password hash lookups take and how
+ * often the user does not exist.
+ *
+ */
+public class InstrumentedUserPasswordDao implements UpdatableUserPasswordDao {
+    private final Timer lookups;
+    private final Timer bulkLookups;
+    private final Timer updates;
+    private final Counter unknownUsers;
+
+    private UserPasswordDao userPasswordDao;
+
+    public InstrumentedUserPasswordDao() {
+        this(MetricRegistry.getDefault());
+    }
+
+    /** @param metricRegistry registry to record the lookup metrics in */
+    public InstrumentedUserPasswordDao(MetricRegistry metricRegistry) {
+        this.lookups =
+                metricRegistry.timer(
+                        "cas.userPasswordDao.getPasswordHash",
+                        "Time spent looking up the password hash of a user");
+        this.bulkLookups =
+                metricRegistry.timer(
+                        "cas.userPasswordDao.getPasswordHashes",
+                        "Time spent looking up the password hashes of several users");
+        this.updates =
+                metricRegistry.timer(
+                        "cas.userPasswordDao.updatePasswordHash",
+                        "Time spent replacing the password hash of a user");
+        this.unknownUsers =
+                metricRegistry.counter(
+                        "cas.userPasswordDao.unknownUser",
+                        "Password hash lookups for users that do not exist");
+    }
+
+    /** @return the userPasswordDao */
+    public UserPasswordDao getUserPasswordDao() {
+        return this.userPasswordDao;
+    }
+    /** @param userPasswordDao the userPasswordDao to record lookups of */
+    public void setUserPasswordDao(UserPasswordDao userPasswordDao) {
+        this.userPasswordDao = userPasswordDao;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(String userName) {
+        final long start = System.nanoTime();
+        final String passwordHash;
+        try {
+            passwordHash = this.userPasswordDao.getPasswordHash(userName);
+        } finally {
+            this.lookups.record(System.nanoTime() - start);
+        }
+        if (passwordHash == null) {
+            this.unknownUsers.increment();
+        }
+        return passwordHash;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHashes(java.util.Collection)
+     */
+    public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+        final long start = System.nanoTime();
+        try {
+            return this.userPasswordDao.getPasswordHashes(userNames);
+        } finally {
+            this.bulkLookups.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Updates the password hash through the delegate if it is an {@link UpdatableUserPasswordDao}.
+     *
+     * @return true if the password hash was replaced, false if it was not or the delegate does
+     *     not support updates
+     */
+    public boolean updatePasswordHash(
+            String userName, String expectedPasswordHash, String newPasswordHash) {
+        if (!(this.userPasswordDao instanceof UpdatableUserPasswordDao)) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return ((UpdatableUserPasswordDao) this.userPasswordDao)
+                    .updatePasswordHash(userName, expectedPasswordHash, newPasswordHash);
+        } finally {
+            this.updates.record(System.nanoTime() - start);
+        }
+    }
+}
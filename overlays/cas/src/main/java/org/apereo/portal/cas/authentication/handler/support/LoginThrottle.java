@@ -0,0 +1,296 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts failed logins per username and per client address over a sliding window, so that logins
+ * over the limit can be rejected before the stored password hash is looked up or any hashing is
+ * done.
+ *
+ * <p>Failures are counted in a count-min sketch: <code>depth</code> rows of <code>width</code>
+ * cells, each key hashed to one cell per row with a random seed chosen when the throttle is
+ * created. A key's count is the smallest of its cells, which is never less than the true count and
+ * only more when every one of its cells is shared with other failing keys. Memory is fixed however
+ * many distinct usernames and addresses an attacker sends; the cost of a flood of distinct keys is
+ * that more innocent keys end up counted with them, which a wider sketch makes less likely.
+ *
+ * <p>The window is divided into <code>slots</code> time slots. Each cell holds a counter per slot,
+ * tagged with the number of the slot period it counts, so a counter left over from an earlier
+ * period is recognised and started over instead of being cleared by a background task. Counters
+ * are updated with compare-and-set, without locks; the cells spread concurrent updates the way the
+ * stripes of a striped lock would.
+ *
+ */
+public class LoginThrottle {
+    /** Default number of failed logins allowed per username within the window */
+    public static final int DEFAULT_MAX_FAILURES_PER_USER = 10;
+
+    /** Default number of failed logins allowed per client address within the window */
+    public static final int DEFAULT_MAX_FAILURES_PER_ADDRESS = 100;
+
+    /** Default length of the window, in seconds */
+    public static final long DEFAULT_WINDOW_SECONDS = 300;
+
+    /** Default number of time slots the window is divided into */
+    public static final int DEFAULT_SLOTS = 5;
+
+    /** Default number of cells per row of the sketch */
+    public static final int DEFAULT_WIDTH = 16384;
+
+    /** Default number of rows of the sketch */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /**
+     * Shortest time slot allowed. The slot period is kept in the bits above the count, so shorter
+     * slots would make the current period overflow them, and no counter would match it.
+     */
+    public static final long MIN_SLOT_MILLIS = 1000;
+
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final int maxFailuresPerUser;
+    private final int maxFailuresPerAddress;
+    private final long slotMillis;
+    private final int slots;
+    private final int width;
+    private final int depth;
+    private final long seed1;
+    private final long seed2;
+
+    /** Per cell and slot: the slot period in the high bits, the failures counted in the low bits */
+    private final AtomicLongArray counters;
+
+    private final AtomicLong userRejections = new AtomicLong();
+    private final AtomicLong addressRejections = new AtomicLong();
+
+    public LoginThrottle() {
+        this(DEFAULT_MAX_FAILURES_PER_USER, DEFAULT_MAX_FAILURES_PER_ADDRESS, DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * @param maxFailuresPerUser Failed logins allowed per username within the window
+     * @param maxFailuresPerAddress Failed logins allowed per client address within the window
+     * @param windowSeconds Length of the window
+     */
+    public LoginThrottle(int maxFailuresPerUser, int maxFailuresPerAddress, long windowSeconds) {
+        this(
+                maxFailuresPerUser,
+                maxFailuresPerAddress,
+                windowSeconds,
+                DEFAULT_SLOTS,
+                DEFAULT_WIDTH,
+                DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param maxFailuresPerUser Failed logins allowed per username within the window
+     * @param maxFailuresPerAddress Failed logins allowed per client address within the window
+     * @param windowSeconds Length of the window
+     * @param slots Number of time slots the window is divided into; failures leave the window a
+     *     slot at a time. Slots must be at least {@link #MIN_SLOT_MILLIS} long
+     * @param width Cells per row of the sketch, rounded up to a power of two
+     * @param depth Rows of the sketch
+     */
+    public LoginThrottle(
+            int maxFailuresPerUser,
+            int maxFailuresPerAddress,
+            long windowSeconds,
+            int slots,
+            int width,
+            int depth) {
+        if (maxFailuresPerUser <= 0 || maxFailuresPerAddress <= 0) {
+            throw new IllegalArgumentException(
+                    "The failures allowed must be greater than 0: "
+                            + maxFailuresPerUser
+                            + ", "
+                            + maxFailuresPerAddress);
+        }
+        if (windowSeconds <= 0 || slots <= 0 || windowSeconds * 1000 / slots < MIN_SLOT_MILLIS) {
+            throw new IllegalArgumentException(
+                    "Invalid window of "
+                            + windowSeconds
+                            + "s in "
+                            + slots
+                            + " slots, which must be at least "
+                            + MIN_SLOT_MILLIS
+                            + "ms long");
+        }
+        if (width <= 0 || depth <= 0 || (long) width * depth * slots > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Invalid sketch of " + depth + " rows of " + width + " cells");
+        }
+        this.maxFailuresPerUser = maxFailuresPerUser;
+        this.maxFailuresPerAddress = maxFailuresPerAddress;
+        this.slotMillis = windowSeconds * 1000 / slots;
+        this.slots = slots;
+        this.width = Integer.highestOneBit(width) == width ? width : Integer.highestOneBit(width) << 1;
+        this.depth = depth;
+        final SecureRandom random = new SecureRandom();
+        this.seed1 = random.nextLong();
+        this.seed2 = random.nextLong();
+        this.counters = new AtomicLongArray(this.width * depth * slots);
+    }
+
+    /**
+     * Checks whether a login must be rejected without checking the password. Rejected logins are
+     * not counted as failures.
+     *
+     * @param username Name the login is for
+     * @param address Address of the client, null if it is not known
+     * @return true if the username or the address has reached its limit of failed logins
+     */
+    public boolean isThrottled(String username, String address) {
+        final long period = currentPeriod();
+        if (username != null && count(userKey(username), period) >= this.maxFailuresPerUser) {
+            this.userRejections.incrementAndGet();
+            return true;
+        }
+        if (address != null && count(addressKey(address), period) >= this.maxFailuresPerAddress) {
+            this.addressRejections.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts a failed login against the username and the address.
+     *
+     * @param username Name the login was for
+     * @param address Address of the client, null if it is not known
+     */
+    public void recordFailure(String username, String address) {
+        final long period = currentPeriod();
+        if (username != null) {
+            increment(userKey(username), period);
+        }
+        if (address != null) {
+            increment(addressKey(address), period);
+        }
+    }
+
+    /** @return failed logins counted for the username within the window */
+    public int getUserFailures(String username) {
+        return count(userKey(username), currentPeriod());
+    }
+
+    /** @return failed logins counted for the address within the window */
+    public int getAddressFailures(String address) {
+        return count(addressKey(address), currentPeriod());
+    }
+
+    /** @return number of logins rejected because of their username */
+    public long getUserRejections() {
+        return this.userRejections.get();
+    }
+
+    /** @return number of logins rejected because of their client address */
+    public long getAddressRejections() {
+        return this.addressRejections.get();
+    }
+
+    /** @return bytes taken by the counters, which does not change */
+    public long getCounterBytes() {
+        return this.counters.length() * 8L;
+    }
+
+    /** Visible for testing. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private long currentPeriod() {
+        return currentTimeMillis() / this.slotMillis;
+    }
+
+    private void increment(long hash, long period) {
+        final long tag = period << COUNT_BITS;
+        final int slot = (int) (period % this.slots);
+        for (int row = 0; row < this.depth; row++) {
+            final int index = index(hash, row) + slot;
+            while (true) {
+                final long current = this.counters.get(index);
+                final long next;
+                if ((current & ~COUNT_MASK) != tag) {
+                    // Left over from an earlier period of this slot
+                    next = tag | 1;
+                } else if ((current & COUNT_MASK) == COUNT_MASK) {
+                    break;
+                } else {
+                    next = current + 1;
+                }
+                if (this.counters.compareAndSet(index, current, next)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int count(long hash, long period) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            final int base = index(hash, row);
+            long sum = 0;
+            for (int slot = 0; slot < this.slots; slot++) {
+                final long value = this.counters.get(base + slot);
+                final long age = period - (value >>> COUNT_BITS);
+                if (age >= 0 && age < this.slots) {
+                    sum += value & COUNT_MASK;
+                }
+            }
+            min = Math.min(min, sum);
+        }
+        return (int) Math.min(min, Integer.MAX_VALUE);
+    }
+
+    /** @return index of the first slot counter of the key's cell in the row */
+    private int index(long hash, int row) {
+        final long h2 = mix(hash ^ this.seed2) | 1;
+        final int column = (int) ((hash + row * h2) >>> 33) & (this.width - 1);
+        return (row * this.width + column) * this.slots;
+    }
+
+    private long userKey(String username) {
+        // Usernames are matched case-insensitively by most directories
+        return hash('u', username.toLowerCase(Locale.ROOT));
+    }
+
+    private long addressKey(String address) {
+        return hash('a', address);
+    }
+
+    private long hash(char type, String key) {
+        long h = this.seed1 ^ type;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h ^ key.length());
+    }
+
+    /** Finalization step of MurmurHash3, so every bit of the input affects every bit of the hash */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+/**
+ * A password hashing scheme, identified in stored password hashes by an algorithm prefix such as
+ * <code>(SHA256)</code>. Implementations must be safe for use by concurrent logins.
+ *
+ */
+public interface PasswordHashScheme {
+    /**
+     * @return Algorithm prefix of hashes produced by this scheme, including the enclosing
+     *     parentheses.
+     */
+    public String getPrefix();
+
+    /**
+     * @param cleartextPassword Password presented by the user
+     * @param storedHash Full stored hash, starting with this scheme's prefix
+     * @return true if the password matches the stored hash
+     */
+    public boolean checkPassword(String cleartextPassword, String storedHash);
+
+    /**
+     * @param cleartextPassword Password to hash
+     * @return Full hash of the password, starting with this scheme's prefix
+     */
+    public String hashPassword(String cleartextPassword);
+}
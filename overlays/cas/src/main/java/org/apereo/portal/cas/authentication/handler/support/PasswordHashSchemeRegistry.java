@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Registry of {@link PasswordHashScheme}s keyed by their algorithm prefix.
+ *
+ * <p>Lookups hash the prefix characters of the stored hash straight into a small open-addressed
+ * table, so finding the scheme for a stored hash takes constant time and allocates nothing.
+ *
+ */
+public class PasswordHashSchemeRegistry {
+    /** Prefix of legacy uPortal MD5 password hashes */
+    public static final String MD5_PREFIX = "(MD5)";
+
+    /** Prefix of uPortal SHA-256 password hashes */
+    public static final String SHA256_PREFIX = "(SHA256)";
+
+    private volatile Table table = new Table(Collections.<PasswordHashScheme>emptyList());
+
+    public PasswordHashSchemeRegistry() {}
+
+    public PasswordHashSchemeRegistry(List<PasswordHashScheme> schemes) {
+        setSchemes(schemes);
+    }
+
+    /**
+     * @return A registry of the schemes uPortal itself reads and writes: single iteration MD5 for
+     *     legacy passwords and 1000 iteration SHA-256, both with an 8-byte salt.
+     */
+    public static PasswordHashSchemeRegistry createDefault() {
+        return new PasswordHashSchemeRegistry(
+                Arrays.<PasswordHashScheme>asList(
+                        new SaltedDigestPasswordHashScheme(MD5_PREFIX, "MD5", 1, 8),
+                        new SaltedDigestPasswordHashScheme(SHA256_PREFIX, "SHA-256", 1000, 8)));
+    }
+
+    /** @param schemes the schemes to register, prefixes must be unique */
+    public void setSchemes(List<PasswordHashScheme> schemes) {
+        this.table = new Table(schemes);
+    }
+
+    public List<PasswordHashScheme> getSchemes() {
+        return this.table.schemes;
+    }
+
+    /** @return the scheme registered for the prefix, null if there is none */
+    public PasswordHashScheme getSchemeByPrefix(String prefix) {
+        final PasswordHashScheme scheme = getScheme(prefix);
+        return scheme != null && scheme.getPrefix().length() == prefix.length() ? scheme : null;
+    }
+
+    /**
+     * @param storedHash Full stored password hash
+     * @return the scheme for the algorithm prefix of the stored hash, null if the hash does not
+     *     start with a registered prefix
+     */
+    public PasswordHashScheme getScheme(String storedHash) {
+        final Table table = this.table;
+        if (storedHash == null || storedHash.isEmpty() || storedHash.charAt(0) != '(') {
+            return null;
+        }
+
+        final int limit = Math.min(storedHash.length(), table.maxPrefixLength);
+        int hash = '(';
+        for (int i = 1; i < limit; i++) {
+            final char c = storedHash.charAt(i);
+            hash = 31 * hash + c;
+            if (c == ')') {
+                return table.find(hash, storedHash, i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int prefixHash(String prefix) {
+        int hash = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            hash = 31 * hash + prefix.charAt(i);
+        }
+        return hash;
+    }
+
+    private static final class Table {
+        private final List<PasswordHashScheme> schemes;
+        private final PasswordHashScheme[] slots;
+        private final int mask;
+        private final int maxPrefixLength;
+
+        Table(List<PasswordHashScheme> schemes) {
+            this.schemes =
+                    Collections.unmodifiableList(new ArrayList<PasswordHashScheme>(schemes));
+
+            int capacity = 8;
+            while (capacity < schemes.size() * 4) {
+                capacity <<= 1;
+            }
+            this.slots = new PasswordHashScheme[capacity];
+            this.mask = capacity - 1;
+
+            int maxPrefixLength = 0;
+            for (final PasswordHashScheme scheme : schemes) {
+                final String prefix = scheme.getPrefix();
+                if (prefix.length() < 3
+                        || prefix.charAt(0) != '('
+                        || prefix.indexOf(')') != prefix.length() - 1) {
+                    throw new IllegalArgumentException(
+                            "Prefix must be a name enclosed in parentheses: " + prefix);
+                }
+                int slot = prefixHash(prefix) & this.mask;
+                while (this.slots[slot] != null) {
+                    if (this.slots[slot].getPrefix().equals(prefix)) {
+                        throw new IllegalArgumentException(
+                                "Duplicate hash scheme prefix: " + prefix);
+                    }
+                    slot = (slot + 1) & this.mask;
+                }
+                this.slots[slot] = scheme;
+                maxPrefixLength = Math.max(maxPrefixLength, prefix.length());
+            }
+            this.maxPrefixLength = maxPrefixLength;
+        }
+
+        PasswordHashScheme find(int hash, String storedHash, int prefixLength) {
+            for (int slot = hash & this.mask; ; slot = (slot + 1) & this.mask) {
+                final PasswordHashScheme scheme = this.slots[slot];
+                if (scheme == null) {
+                    return null;
+                }
+                final String prefix = scheme.getPrefix();
+                if (prefix.length() == prefixLength && storedHash.startsWith(prefix)) {
+                    return scheme;
+                }
+            }
+        }
+    }
+}
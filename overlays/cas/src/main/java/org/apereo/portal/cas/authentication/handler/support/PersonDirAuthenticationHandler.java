@@ -14,49 +14,49 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import com.github.inspektr.common.web.ClientInfo;
+import com.github.inspektr.common.web.ClientInfoHolder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apereo.portal.cas.metrics.Counter;
+import org.apereo.portal.cas.metrics.MetricRegistry;
+import org.apereo.portal.cas.metrics.Timer;
 import org.jasig.cas.authentication.handler.AuthenticationException;
 import org.jasig.cas.authentication.handler.support.AbstractUsernamePasswordAuthenticationHandler;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
-import org.jasypt.digest.config.SimpleDigesterConfig;
-import org.jasypt.util.password.ConfigurablePasswordEncryptor;
 
 /**
  * Impl of the uPortal MD5 password checking algorithm
  *
  */
 public class PersonDirAuthenticationHandler extends AbstractUsernamePasswordAuthenticationHandler {
-    private static final String MD5_PREFIX = "(MD5)";
+    private UserPasswordDao userPasswordDao;
 
-    private static final String SHA256_PREFIX = "(SHA256)";
+    private PasswordHashSchemeRegistry passwordHashSchemeRegistry;
+    private PasswordHashScheme upgradeScheme;
 
-    private UserPasswordDao userPasswordDao;
+    private HashVerificationExecutor hashVerificationExecutor;
+
+    private VerifiedCredentialCache verifiedCredentialCache;
+    private boolean skipLookupOnCacheHit = false;
 
-    private ConfigurablePasswordEncryptor md5Encryptor;
-    private ConfigurablePasswordEncryptor sha256Encryptor;
+    private LoginThrottle loginThrottle;
+
+    private MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, Timer> verifyTimers =
+            new ConcurrentHashMap<String, Timer>();
+    private Counter unsupportedHashes;
+    private Counter throttledLogins;
 
     public PersonDirAuthenticationHandler() {
         /*
-         * Create an MD5 password encryptor that uses an 8-byte salt with one
-         * hash iteration.  This encryptor should be  capable of validating
-         * legacy uPortal passwords.
+         * Validate legacy uPortal MD5 passwords (8-byte salt, one hash
+         * iteration) and the stronger SHA-256 passwords (8-byte salt, 1000
+         * iterations) uPortal sets for new passwords.
          */
-        md5Encryptor = new ConfigurablePasswordEncryptor();
-        SimpleDigesterConfig md5Config = new SimpleDigesterConfig();
-        md5Config.setIterations(1);
-        md5Config.setAlgorithm("MD5");
-        md5Config.setSaltSizeBytes(8);
-        md5Encryptor.setConfig(md5Config);
+        this.passwordHashSchemeRegistry = PasswordHashSchemeRegistry.createDefault();
 
-        /*
-         * Create a stronger SHA-256 password encryptor for setting and
-         * validating new passwords.
-         */
-        sha256Encryptor = new ConfigurablePasswordEncryptor();
-        SimpleDigesterConfig shaConfig = new SimpleDigesterConfig();
-        shaConfig.setIterations(1000);
-        shaConfig.setAlgorithm("SHA-256");
-        shaConfig.setSaltSizeBytes(8);
-        sha256Encryptor.setConfig(shaConfig);
+        setMetricRegistry(MetricRegistry.getDefault());
     }
 
     /** @return the userPasswordDao */
@@ -68,37 +68,246 @@ public class PersonDirAuthenticationHandler extends AbstractUsernamePasswordAuth
         this.userPasswordDao = userPasswordDao;
     }
 
+    /** @return the passwordHashSchemeRegistry */
+    public PasswordHashSchemeRegistry getPasswordHashSchemeRegistry() {
+        return this.passwordHashSchemeRegistry;
+    }
+    /** @param passwordHashSchemeRegistry the hash schemes stored password hashes may use */
+    public void setPasswordHashSchemeRegistry(
+            PasswordHashSchemeRegistry passwordHashSchemeRegistry) {
+        this.passwordHashSchemeRegistry = passwordHashSchemeRegistry;
+    }
+
+    /** @return the upgradeScheme, null if password hashes are never upgraded */
+    public PasswordHashScheme getUpgradeScheme() {
+        return this.upgradeScheme;
+    }
+    /**
+     * @param upgradeScheme Scheme to rehash a password with when a user successfully logs in with a
+     *     password stored using any other scheme. The new hash is written back when the
+     *     userPasswordDao is an {@link UpdatableUserPasswordDao}. uPortal reads the same password
+     *     hashes, so only schemes uPortal supports should be used. Defaults to null, which never
+     *     rehashes.
+     */
+    public void setUpgradeScheme(PasswordHashScheme upgradeScheme) {
+        this.upgradeScheme = upgradeScheme;
+    }
+
+    /** @return the hashVerificationExecutor, null if hashes are verified on the request thread */
+    public HashVerificationExecutor getHashVerificationExecutor() {
+        return this.hashVerificationExecutor;
+    }
+    /**
+     * @param hashVerificationExecutor Bounded pool to verify password hashes on, logins it rejects
+     *     or that time out fail. Defaults to null, which verifies on the request thread.
+     */
+    public void setHashVerificationExecutor(HashVerificationExecutor hashVerificationExecutor) {
+        this.hashVerificationExecutor = hashVerificationExecutor;
+    }
+
+    /** @return the verifiedCredentialCache, null if verifications are not cached */
+    public VerifiedCredentialCache getVerifiedCredentialCache() {
+        return this.verifiedCredentialCache;
+    }
+    /**
+     * @param verifiedCredentialCache Cache of recent successful verifications, null (the default)
+     *     to verify every login against the stored hash
+     */
+    public void setVerifiedCredentialCache(VerifiedCredentialCache verifiedCredentialCache) {
+        this.verifiedCredentialCache = verifiedCredentialCache;
+    }
+
+    /** @return the skipLookupOnCacheHit */
+    public boolean isSkipLookupOnCacheHit() {
+        return this.skipLookupOnCacheHit;
+    }
+    /**
+     * @param skipLookupOnCacheHit If true a cached verification is trusted without looking up the
+     *     stored hash, so a password change is only noticed once the cached verification expires.
+     *     Defaults to false, which still saves the hashing cost but checks the stored hash has not
+     *     changed.
+     */
+    public void setSkipLookupOnCacheHit(boolean skipLookupOnCacheHit) {
+        this.skipLookupOnCacheHit = skipLookupOnCacheHit;
+    }
+
+    /** @return the loginThrottle, null if failed logins are not limited */
+    public LoginThrottle getLoginThrottle() {
+        return this.loginThrottle;
+    }
+    /**
+     * @param loginThrottle Limit on failed logins per username and client address, logins over it
+     *     fail before the stored hash is looked up. Defaults to null, which checks every login.
+     */
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
+    }
+
+    /**
+     * @param metricRegistry registry to record verification metrics in, defaults to {@link
+     *     MetricRegistry#getDefault()}
+     */
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.verifyTimers.clear();
+        this.unsupportedHashes =
+                metricRegistry.counter(
+                        "cas.authentication.hash.unsupported",
+                        "Stored password hashes without a supported algorithm prefix");
+        this.throttledLogins =
+                metricRegistry.counter(
+                        "cas.authentication.throttled",
+                        "Logins rejected for too many recent failures of the user or client address");
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.cas.authentication.handler.support.AbstractUsernamePasswordAuthenticationHandler#authenticateUsernamePasswordInternal(org.jasig.cas.authentication.principal.UsernamePasswordCredentials)
      */
     @Override
     protected boolean authenticateUsernamePasswordInternal(UsernamePasswordCredentials credentials)
             throws AuthenticationException {
+        final LoginThrottle throttle = this.loginThrottle;
+        if (throttle == null) {
+            return verifyPassword(credentials);
+        }
+
+        final String username = credentials.getUsername();
+        final String address = getClientAddress();
+        if (throttle.isThrottled(username, address)) {
+            this.throttledLogins.increment();
+            this.log.warn(
+                    "Rejected login for user '"
+                            + username
+                            + "' from "
+                            + address
+                            + " after too many failed logins");
+            return false;
+        }
+
+        final boolean verified = verifyPassword(credentials);
+        if (!verified) {
+            throttle.recordFailure(username, address);
+        }
+        return verified;
+    }
+
+    /** @return address of the client logging in, null if it is not known */
+    protected String getClientAddress() {
+        final ClientInfo clientInfo = ClientInfoHolder.getClientInfo();
+        return clientInfo != null ? clientInfo.getClientIpAddress() : null;
+    }
+
+    private boolean verifyPassword(UsernamePasswordCredentials credentials)
+            throws AuthenticationException {
         final String username = credentials.getUsername();
         final String cleartextPassword = credentials.getPassword();
 
+        final VerifiedCredentialCache cache = this.verifiedCredentialCache;
+        if (cache != null
+                && this.skipLookupOnCacheHit
+                && cache.isVerified(username, cleartextPassword, null)) {
+            return true;
+        }
+
         final String expectedFullHash = this.userPasswordDao.getPasswordHash(username);
 
         if (expectedFullHash == null) {
+            if (cache != null) {
+                cache.invalidate(username);
+            }
             return false;
         }
 
-        if (expectedFullHash.startsWith(MD5_PREFIX)) {
-
-            String hashWithoutAlgorithmPrefix = expectedFullHash.substring(5);
-            return md5Encryptor.checkPassword(cleartextPassword, hashWithoutAlgorithmPrefix);
-
-        } else if (expectedFullHash.startsWith(SHA256_PREFIX)) {
-
-            String hashWithoutAlgorithmPrefix = expectedFullHash.substring(8);
-            return sha256Encryptor.checkPassword(cleartextPassword, hashWithoutAlgorithmPrefix);
+        if (cache != null
+                && !this.skipLookupOnCacheHit
+                && cache.isVerified(username, cleartextPassword, expectedFullHash)) {
+            return true;
+        }
 
-        } else {
+        final PasswordHashScheme scheme =
+                this.passwordHashSchemeRegistry.getScheme(expectedFullHash);
+        if (scheme == null) {
+            this.unsupportedHashes.increment();
             this.log.error(
                     "Existing password hash for user '"
                             + username
                             + "' is not a valid hash. It does not start with a supported algorithm prefix");
             return false;
         }
+
+        final HashVerificationExecutor executor = this.hashVerificationExecutor;
+        final Timer verifyTimer = getVerifyTimer(scheme);
+        final long start = System.nanoTime();
+        final boolean verified;
+        try {
+            verified =
+                    executor != null
+                            ? executor.verify(scheme, cleartextPassword, expectedFullHash)
+                            : scheme.checkPassword(cleartextPassword, expectedFullHash);
+        } finally {
+            verifyTimer.record(System.nanoTime() - start);
+        }
+        if (!verified) {
+            return false;
+        }
+
+        final String currentHash =
+                upgradePasswordHash(username, cleartextPassword, scheme, expectedFullHash);
+        if (cache != null) {
+            cache.put(username, cleartextPassword, currentHash);
+        }
+        return true;
+    }
+
+    /**
+     * Rehashes the password with the upgrade scheme if it is stored using a different scheme.
+     *
+     * @return the password hash the user has after the upgrade attempt
+     */
+    private String upgradePasswordHash(
+            String username,
+            String cleartextPassword,
+            PasswordHashScheme scheme,
+            String expectedFullHash) {
+        final PasswordHashScheme upgradeScheme = this.upgradeScheme;
+        if (upgradeScheme == null
+                || upgradeScheme == scheme
+                || upgradeScheme.getPrefix().equals(scheme.getPrefix())
+                || !(this.userPasswordDao instanceof UpdatableUserPasswordDao)) {
+            return expectedFullHash;
+        }
+
+        try {
+            final String upgradedHash = upgradeScheme.hashPassword(cleartextPassword);
+            if (((UpdatableUserPasswordDao) this.userPasswordDao)
+                    .updatePasswordHash(username, expectedFullHash, upgradedHash)) {
+                this.log.info(
+                        "Upgraded password hash for user '"
+                                + username
+                                + "' from "
+                                + scheme.getPrefix()
+                                + " to "
+                                + upgradeScheme.getPrefix());
+                return upgradedHash;
+            }
+        } catch (RuntimeException e) {
+            // The user has successfully authenticated, a failed upgrade must not change that
+            this.log.warn("Failed to upgrade password hash for user '" + username + "'", e);
+        }
+        return expectedFullHash;
+    }
+
+    private Timer getVerifyTimer(PasswordHashScheme scheme) {
+        final String prefix = scheme.getPrefix();
+        Timer timer = this.verifyTimers.get(prefix);
+        if (timer == null) {
+            timer =
+                    this.metricRegistry.timer(
+                            "cas.authentication.hash.verify",
+                            "scheme=\"" + prefix.substring(1, prefix.length() - 1) + "\"",
+                            "Time spent verifying passwords against stored hashes");
+            this.verifyTimers.put(prefix, timer);
+        }
+        return timer;
     }
 }
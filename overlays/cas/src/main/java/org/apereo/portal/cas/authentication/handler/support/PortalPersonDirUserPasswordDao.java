@@ -14,21 +14,40 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import javax.sql.DataSource;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
-;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 /**
  * Retrieves password hashes from the uPortal UP_PERSON_DIR table
  *
  */
-public class PortalPersonDirUserPasswordDao implements UserPasswordDao {
+public class PortalPersonDirUserPasswordDao implements UpdatableUserPasswordDao {
     private static final String PERSON_DIR_QUERY =
             "SELECT ENCRPTD_PSWD FROM UP_PERSON_DIR WHERE USER_NAME = ?";
+    private static final String PERSON_DIR_UPDATE =
+            "UPDATE UP_PERSON_DIR SET ENCRPTD_PSWD = ? WHERE USER_NAME = ? AND ENCRPTD_PSWD = ?";
+    private static final String PERSON_DIR_BULK_QUERY =
+            "SELECT USER_NAME, ENCRPTD_PSWD FROM UP_PERSON_DIR WHERE USER_NAME IN (:userNames)";
+
+    /** Some databases (Oracle) limit the number of values in an IN clause to 1000 */
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
 
     private DataSource dataSource;
     private JdbcTemplate jdbcTemplate;
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
     /** @return the dataSource */
     public DataSource getDataSource() {
@@ -39,6 +58,7 @@ public class PortalPersonDirUserPasswordDao implements UserPasswordDao {
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
         this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(this.jdbcTemplate);
     }
 
     /* (non-Javadoc)
@@ -51,4 +71,48 @@ public class PortalPersonDirUserPasswordDao implements UserPasswordDao {
             return null;
         }
     }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHashes(java.util.Collection)
+     */
+    public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+        final List<String> distinctUserNames =
+                new ArrayList<String>(new LinkedHashSet<String>(userNames));
+        final Map<String, String> passwordHashes = new HashMap<String, String>();
+
+        for (int start = 0; start < distinctUserNames.size(); start += MAX_IN_CLAUSE_SIZE) {
+            final int end = Math.min(start + MAX_IN_CLAUSE_SIZE, distinctUserNames.size());
+            final Map<String, List<String>> parameters =
+                    Collections.singletonMap("userNames", distinctUserNames.subList(start, end));
+
+            this.namedParameterJdbcTemplate.query(
+                    PERSON_DIR_BULK_QUERY,
+                    parameters,
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            final String userName = rs.getString(1);
+                            if (passwordHashes.containsKey(userName)) {
+                                // Same behavior as queryForObject for a duplicate user
+                                throw new IncorrectResultSizeDataAccessException(
+                                        "Multiple UP_PERSON_DIR rows for user " + userName, 1, 2);
+                            }
+                            passwordHashes.put(userName, rs.getString(2));
+                        }
+                    });
+        }
+
+        // Users that exist without a password hash are treated like users that do not exist
+        passwordHashes.values().removeAll(Collections.singleton(null));
+        return passwordHashes;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UpdatableUserPasswordDao#updatePasswordHash(java.lang.String, java.lang.String, java.lang.String)
+     */
+    public boolean updatePasswordHash(
+            String userName, String expectedPasswordHash, String newPasswordHash) {
+        return this.jdbcTemplate.update(
+                        PERSON_DIR_UPDATE, newPasswordHash, userName, expectedPasswordHash)
+                == 1;
+    }
 }
@@ -0,0 +1,227 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Salted, iterated message digest scheme producing the same hashes as the jasypt <code>
+ * ConfigurablePasswordEncryptor</code> uPortal uses: <code>prefix + base64(salt + digest)</code>
+ * where the digest of <code>salt + UTF-8(NFC(password))</code> is re-digested <code>iterations - 1
+ * </code> times.
+ *
+ * <p>Each thread verifies with its own {@link MessageDigest} and scratch buffers, so concurrent
+ * logins do not contend on a shared digester, and the stored hash is decoded in place rather than
+ * copied out with <code>substring</code>.
+ *
+ */
+public class SaltedDigestPasswordHashScheme implements PasswordHashScheme {
+    private static final SecureRandom SALT_GENERATOR = new SecureRandom();
+
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final String prefix;
+    private final String algorithm;
+    private final int iterations;
+    private final int saltSizeBytes;
+    private final int digestLength;
+
+    private final ThreadLocal<DigestState> digestStates =
+            new ThreadLocal<DigestState>() {
+                @Override
+                protected DigestState initialValue() {
+                    return new DigestState(newMessageDigest());
+                }
+            };
+
+    /**
+     * @param prefix Algorithm prefix, including the enclosing parentheses
+     * @param algorithm {@link MessageDigest} algorithm name
+     * @param iterations Number of times the password is digested
+     * @param saltSizeBytes Size of the random salt stored at the start of the hash
+     */
+    public SaltedDigestPasswordHashScheme(
+            String prefix, String algorithm, int iterations, int saltSizeBytes) {
+        if (prefix == null || !prefix.startsWith("(") || !prefix.endsWith(")")) {
+            throw new IllegalArgumentException("Prefix must be enclosed in parentheses: " + prefix);
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1: " + iterations);
+        }
+        if (saltSizeBytes < 0) {
+            throw new IllegalArgumentException("saltSizeBytes must not be negative");
+        }
+        this.prefix = prefix;
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.saltSizeBytes = saltSizeBytes;
+        this.digestLength = newMessageDigest().getDigestLength();
+    }
+
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    public int getSaltSizeBytes() {
+        return this.saltSizeBytes;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.PasswordHashScheme#checkPassword(java.lang.String, java.lang.String)
+     */
+    public boolean checkPassword(String cleartextPassword, String storedHash) {
+        if (cleartextPassword == null
+                || storedHash == null
+                || !storedHash.startsWith(this.prefix)) {
+            return false;
+        }
+
+        final DigestState state = this.digestStates.get();
+        final int decodedLength = decodeBase64(storedHash, this.prefix.length(), state.stored);
+        if (decodedLength != this.saltSizeBytes + this.digestLength) {
+            return false;
+        }
+
+        digest(state, state.stored, cleartextPassword);
+
+        // Constant time comparison of the computed and stored digests
+        int difference = 0;
+        for (int i = 0; i < this.digestLength; i++) {
+            difference |= state.digest[i] ^ state.stored[this.saltSizeBytes + i];
+        }
+        return difference == 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.PasswordHashScheme#hashPassword(java.lang.String)
+     */
+    public String hashPassword(String cleartextPassword) {
+        final byte[] hash = new byte[this.saltSizeBytes + this.digestLength];
+        final byte[] salt = new byte[this.saltSizeBytes];
+        SALT_GENERATOR.nextBytes(salt);
+        System.arraycopy(salt, 0, hash, 0, salt.length);
+
+        final DigestState state = this.digestStates.get();
+        digest(state, hash, cleartextPassword);
+        System.arraycopy(state.digest, 0, hash, this.saltSizeBytes, this.digestLength);
+
+        return this.prefix + Base64.getEncoder().encodeToString(hash);
+    }
+
+    /** Digests the password with the salt found at the start of saltSource into state.digest */
+    private void digest(DigestState state, byte[] saltSource, String cleartextPassword) {
+        final MessageDigest md = state.messageDigest;
+        final byte[] digest = state.digest;
+        try {
+            md.reset();
+            md.update(saltSource, 0, this.saltSizeBytes);
+            md.update(normalize(cleartextPassword).getBytes(StandardCharsets.UTF_8));
+            md.digest(digest, 0, this.digestLength);
+            for (int i = 1; i < this.iterations; i++) {
+                md.update(digest, 0, this.digestLength);
+                md.digest(digest, 0, this.digestLength);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Failed to digest password with " + this.algorithm, e);
+        }
+    }
+
+    private MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(this.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(
+                    "Unsupported digest algorithm: " + this.algorithm, e);
+        }
+    }
+
+    private static String normalize(String cleartextPassword) {
+        // jasypt normalizes to NFC, most passwords already are and need no copy
+        return Normalizer.isNormalized(cleartextPassword, Normalizer.Form.NFC)
+                ? cleartextPassword
+                : Normalizer.normalize(cleartextPassword, Normalizer.Form.NFC);
+    }
+
+    /**
+     * Decodes padded base64 from the given offset of the string into the buffer.
+     *
+     * @return number of bytes decoded, -1 if the input is not valid base64 or does not fit
+     */
+    private static int decodeBase64(String source, int offset, byte[] buffer) {
+        int end = source.length();
+        while (end > offset && source.charAt(end - 1) == '=') {
+            end--;
+        }
+        if (source.length() - offset == 0 || (source.length() - offset) % 4 != 0) {
+            return -1;
+        }
+
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = offset; i < end; i++) {
+            final char c = source.charAt(i);
+            final int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            bits = ((bits << 6) | value) & 0xFFFF;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                if (length == buffer.length) {
+                    return -1;
+                }
+                buffer[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return length;
+    }
+
+    private final class DigestState {
+        private final MessageDigest messageDigest;
+        private final byte[] digest;
+        private final byte[] stored;
+
+        DigestState(MessageDigest messageDigest) {
+            this.messageDigest = messageDigest;
+            this.digest = new byte[digestLength];
+            this.stored = new byte[saltSizeBytes + digestLength];
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+/**
+ * A {@link UserPasswordDao} that can also write password hashes back, used to transparently
+ * upgrade the hash of a user's password when they log in.
+ *
+ */
+public interface UpdatableUserPasswordDao extends UserPasswordDao {
+    /**
+     * Replaces the password hash of the user, but only if it still is the expected hash so that a
+     * concurrent password change is never overwritten.
+     *
+     * @param userName Name of the user to update the password hash for.
+     * @param expectedPasswordHash Password hash the user is expected to currently have.
+     * @param newPasswordHash Password hash to store.
+     * @return true if the password hash was replaced.
+     */
+    public boolean updatePasswordHash(
+            String userName, String expectedPasswordHash, String newPasswordHash);
+}
@@ -14,6 +14,9 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  */
 public interface UserPasswordDao {
@@ -23,4 +26,11 @@ public interface UserPasswordDao {
      *     does not exist.
      */
     public String getPasswordHash(String userName);
+
+    /**
+     * @param userNames Names of the users to get the password hashes for.
+     * @return Map of user name to password hash, users that do not exist or have no hash are not
+     *     included.
+     */
+    public Map<String, String> getPasswordHashes(Collection<String> userNames);
 }
@@ -0,0 +1,183 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apereo.portal.cas.util.BoundedExpiringCache;
+
+/**
+ * Remembers recent successful password verifications so that repeat logins within a short window
+ * do not pay for the full password hash again.
+ *
+ * <p>Entries are keyed by username and hold an HMAC-SHA256 digest of the cleartext password, keyed
+ * with a random secret generated when the cache is created, along with the stored password hash
+ * the password was verified against. Cleartext passwords are never retained. A cached verification
+ * only counts when the password digest matches and, when the stored hash is supplied, the stored
+ * hash has not changed since the password was verified.
+ *
+ */
+public class VerifiedCredentialCache {
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    /** Default maximum number of users remembered */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default time a verification is remembered for, in seconds */
+    public static final long DEFAULT_TIME_TO_LIVE_SECONDS = 300;
+
+    private final SecretKeySpec secret;
+    private final ThreadLocal<Mac> macs =
+            new ThreadLocal<Mac>() {
+                @Override
+                protected Mac initialValue() {
+                    try {
+                        final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                        mac.init(secret);
+                        return mac;
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException(
+                                "Unable to initialize " + MAC_ALGORITHM + " for the credential cache",
+                                e);
+                    }
+                }
+            };
+
+    private final BoundedExpiringCache<String, VerifiedCredential> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public VerifiedCredentialCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE_SECONDS);
+    }
+
+    /**
+     * @param maxSize Maximum number of users to remember verifications for
+     * @param timeToLiveSeconds Time a verification is remembered for
+     */
+    public VerifiedCredentialCache(int maxSize, long timeToLiveSeconds) {
+        this(new BoundedExpiringCache<String, VerifiedCredential>(maxSize, timeToLiveSeconds * 1000));
+    }
+
+    VerifiedCredentialCache(BoundedExpiringCache<String, VerifiedCredential> cache) {
+        if (cache.getTimeToLiveMillis() <= 0) {
+            throw new IllegalArgumentException("A verified credential cache must have a time-to-live");
+        }
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.secret = new SecretKeySpec(key, MAC_ALGORITHM);
+        this.cache = cache;
+    }
+
+    /**
+     * @param username Name of the user logging in
+     * @param cleartextPassword Password presented by the user
+     * @param storedHash The user's current stored password hash, or null to trust the cached
+     *     verification without checking the stored hash
+     * @return true if the same password was successfully verified against the same stored hash
+     *     within the time-to-live
+     */
+    public boolean isVerified(String username, String cleartextPassword, String storedHash) {
+        if (username == null || cleartextPassword == null) {
+            return false;
+        }
+
+        final VerifiedCredential verified = this.cache.get(username);
+        if (verified == null) {
+            this.misses.incrementAndGet();
+            return false;
+        }
+
+        if (storedHash != null && !storedHash.equals(verified.storedHash)) {
+            // The password was changed since it was verified, the entry is no longer any use
+            this.cache.remove(username);
+            this.invalidations.incrementAndGet();
+            this.misses.incrementAndGet();
+            return false;
+        }
+
+        if (!MessageDigest.isEqual(verified.passwordDigest, digest(cleartextPassword))) {
+            this.misses.incrementAndGet();
+            return false;
+        }
+
+        this.hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records a successful verification of the password against the stored hash.
+     *
+     * @param username Name of the user that logged in
+     * @param cleartextPassword Password that was verified
+     * @param storedHash Stored password hash the password was verified against
+     */
+    public void put(String username, String cleartextPassword, String storedHash) {
+        if (username == null || cleartextPassword == null || storedHash == null) {
+            return;
+        }
+        this.cache.put(username, new VerifiedCredential(digest(cleartextPassword), storedHash));
+    }
+
+    /** Forgets any verification remembered for the user. */
+    public void invalidate(String username) {
+        if (username != null && this.cache.remove(username) != null) {
+            this.invalidations.incrementAndGet();
+        }
+    }
+
+    public int getSize() {
+        return this.cache.size();
+    }
+
+    /** @return number of logins that were satisfied by a cached verification */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /** @return number of logins that needed a full password verification */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of remembered verifications dropped because of the size bound, their
+     *     time-to-live or a changed stored hash
+     */
+    public long getEvictions() {
+        return this.cache.getEvictions() + this.invalidations.get();
+    }
+
+    private byte[] digest(String cleartextPassword) {
+        return this.macs.get().doFinal(cleartextPassword.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static final class VerifiedCredential {
+        private final byte[] passwordDigest;
+        private final String storedHash;
+
+        VerifiedCredential(byte[] passwordDigest, String storedHash) {
+            this.passwordDigest = passwordDigest;
+            this.storedHash = storedHash;
+        }
+    }
+}
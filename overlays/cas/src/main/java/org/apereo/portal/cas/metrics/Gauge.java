@@ -0,0 +1,43 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Current value of something, such as the length of a queue, read when the metric is exported.
+ *
+ */
+public class Gauge extends Metric implements GaugeMBean {
+    private volatile LongSupplier supplier;
+
+    Gauge(String name, String labels, String description, LongSupplier supplier) {
+        super(name, labels, description);
+        this.supplier = supplier;
+    }
+
+    public long getValue() {
+        return this.supplier.getAsLong();
+    }
+
+    /** @param supplier where the value is read from from now on */
+    void setSupplier(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    /** A gauge has nothing to reset, its value is always read from its supplier */
+    @Override
+    public void reset() {}
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+/**
+ * Base of the metrics held by a {@link MetricRegistry}. A metric is identified by its dotted name,
+ * such as <code>cas.authentication.hash.verify</code>, and an optional set of labels that tell
+ * apart metrics of the same name, such as <code>scheme="SHA256"</code>.
+ *
+ */
+public abstract class Metric {
+    private final String name;
+    private final String labels;
+    private final String description;
+
+    Metric(String name, String labels, String description) {
+        this.name = name;
+        this.labels = labels;
+        this.description = description;
+    }
+
+    /** @return dotted name of the metric */
+    public String getName() {
+        return this.name;
+    }
+
+    /** @return labels in <code>key="value",...</code> form, empty if there are none */
+    public String getLabels() {
+        return this.labels;
+    }
+
+    /** @return what the metric measures */
+    public String getDescription() {
+        return this.description;
+    }
+
+    /** Resets the metric, e.g. between load test runs */
+    public abstract void reset();
+
+    static String key(String name, String labels) {
+        return name + "{" + labels + "}";
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the timers, counters and gauges of the CAS overlay so they can be exported through JMX and the
+ * {@link MetricsServlet}.
+ *
+ * <p>Components look their metrics up once, when they are created, and keep them in fields; the
+ * registry is not used on the hot path. Unless configured otherwise components use the {@link
+ * #getDefault() default registry}, which the exporters also default to, so instrumented beans
+ * defined in different Spring contexts report to the same place.
+ *
+ */
+public class MetricRegistry {
+    private static final MetricRegistry DEFAULT = new MetricRegistry();
+
+    /** Sorted by name so metrics of the same name are exported together */
+    private final ConcurrentNavigableMap<String, Metric> metrics =
+            new ConcurrentSkipListMap<String, Metric>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /** @return the registry shared by the CAS overlay */
+    public static MetricRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /** @return the timer with the name and no labels, created if it does not exist */
+    public Timer timer(String name, String description) {
+        return timer(name, "", description);
+    }
+
+    /**
+     * @param labels Labels in <code>key="value",...</code> form
+     * @return the timer with the name and labels, created if it does not exist
+     */
+    public Timer timer(String name, String labels, String description) {
+        return register(new Timer(name, labels, description), Timer.class);
+    }
+
+    /** @return the counter with the name and no labels, created if it does not exist */
+    public Counter counter(String name, String description) {
+        return counter(name, "", description);
+    }
+
+    /**
+     * @param labels Labels in <code>key="value",...</code> form
+     * @return the counter with the name and labels, created if it does not exist
+     */
+    public Counter counter(String name, String labels, String description) {
+        return register(new Counter(name, labels, description), Counter.class);
+    }
+
+    /**
+     * Registers a gauge, or points the existing gauge with the name and no labels at the supplier;
+     * a component that is created again, e.g. when its Spring context is refreshed, takes over the
+     * gauge of the one it replaces.
+     *
+     * @return the gauge with the name and no labels
+     */
+    public Gauge gauge(String name, String description, LongSupplier supplier) {
+        final Gauge gauge = register(new Gauge(name, "", description, supplier), Gauge.class);
+        gauge.setSupplier(supplier);
+        return gauge;
+    }
+
+    /** @return every registered metric, ordered by name and labels */
+    public Collection<Metric> getMetrics() {
+        return new ArrayList<Metric>(this.metrics.values());
+    }
+
+    /** Notifies the listener of every metric registered so far and every metric registered later */
+    public void addListener(Listener listener) {
+        this.listeners.add(listener);
+        for (final Metric metric : this.metrics.values()) {
+            listener.metricAdded(metric);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    private <M extends Metric> M register(M metric, Class<M> type) {
+        final String key = Metric.key(metric.getName(), metric.getLabels());
+        final Metric existing = this.metrics.putIfAbsent(key, metric);
+        if (existing != null) {
+            if (!type.isInstance(existing)) {
+                throw new IllegalArgumentException(
+                        "Metric " + key + " is already registered as a " + existing.getClass());
+            }
+            return type.cast(existing);
+        }
+
+        for (final Listener listener : this.listeners) {
+            listener.metricAdded(metric);
+        }
+        return metric;
+    }
+
+    /** Notified when metrics are added to a registry. */
+    public interface Listener {
+        void metricAdded(Metric metric);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers every metric of a {@link MetricRegistry}, including metrics added later, with the
+ * platform MBean server under <code>org.apereo.portal.cas:type=Timer|Counter|Gauge,name=...
+ * </code>. Defined as a Spring bean with <code>init-method="start"</code> and <code>
+ * destroy-method="stop"</code>.
+ *
+ */
+public class MetricsJmxExporter implements MetricRegistry.Listener {
+    /** Default domain of the exported MBeans */
+    public static final String DEFAULT_DOMAIN = "org.apereo.portal.cas";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Set<ObjectName> registered = ConcurrentHashMap.<ObjectName>newKeySet();
+
+    private MetricRegistry metricRegistry = MetricRegistry.getDefault();
+    private MBeanServer mBeanServer;
+    private String domain = DEFAULT_DOMAIN;
+
+    /** @param metricRegistry the registry to export, defaults to the default registry */
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /** @param mBeanServer the server to register with, defaults to the platform MBean server */
+    public void setMBeanServer(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /** @param domain domain of the exported MBeans */
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public void start() {
+        if (this.mBeanServer == null) {
+            this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        }
+        this.metricRegistry.addListener(this);
+    }
+
+    public void stop() {
+        this.metricRegistry.removeListener(this);
+        for (final ObjectName objectName : this.registered) {
+            try {
+                this.mBeanServer.unregisterMBean(objectName);
+            } catch (JMException e) {
+                this.logger.warn("Failed to unregister metric MBean {}", objectName, e);
+            }
+        }
+        this.registered.clear();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.metrics.MetricRegistry.Listener#metricAdded(org.apereo.portal.cas.metrics.Metric)
+     */
+    public void metricAdded(Metric metric) {
+        try {
+            final ObjectName objectName = getObjectName(metric);
+            this.mBeanServer.registerMBean(metric, objectName);
+            this.registered.add(objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // Already exported, e.g. by another exporter for the same registry
+        } catch (JMException e) {
+            this.logger.warn("Failed to export metric {} to JMX", metric.getName(), e);
+        }
+    }
+
+    ObjectName getObjectName(Metric metric) throws JMException {
+        final StringBuilder name = new StringBuilder(this.domain);
+        name.append(":type=").append(metric.getClass().getSimpleName());
+        name.append(",name=").append(ObjectName.quote(metric.getName()));
+        if (!metric.getLabels().isEmpty()) {
+            name.append(",labels=").append(ObjectName.quote(metric.getLabels()));
+        }
+        return new ObjectName(name.toString());
+    }
+}
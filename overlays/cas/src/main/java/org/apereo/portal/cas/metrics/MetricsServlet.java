@@ -0,0 +1,63 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.regex.Pattern;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the metrics of the default {@link MetricRegistry} in the Prometheus text format.
+ *
+ * <p>Only clients whose address matches the <code>allowedAddresses</code> init parameter, a
+ * regular expression defaulting to the loopback addresses, are served; everyone else gets a 403.
+ *
+ */
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /** Default allowedAddresses, IPv4 and IPv6 loopback */
+    public static final String DEFAULT_ALLOWED_ADDRESSES = "127\\.0\\.0\\.1|0:0:0:0:0:0:0:1|::1";
+
+    private MetricRegistry metricRegistry = MetricRegistry.getDefault();
+    private Pattern allowedAddresses = Pattern.compile(DEFAULT_ALLOWED_ADDRESSES);
+
+    @Override
+    public void init() throws ServletException {
+        final String allowedAddresses = getInitParameter("allowedAddresses");
+        if (allowedAddresses != null && !allowedAddresses.trim().isEmpty()) {
+            this.allowedAddresses = Pattern.compile(allowedAddresses.trim());
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!this.allowedAddresses.matcher(request.getRemoteAddr()).matches()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        response.setContentType(PrometheusTextFormat.CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        final Writer writer = response.getWriter();
+        PrometheusTextFormat.write(this.metricRegistry, writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4. Dotted metric names
+ * become underscored, timers are written as histograms in seconds with an additional
+ * <code>_max</code> gauge, counters get a <code>_total</code> suffix, and gauges are written as
+ * they are.
+ *
+ */
+public final class PrometheusTextFormat {
+    /** Content type of the text exposition format */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[] BUCKET_LABELS = new String[Timer.BUCKET_BOUNDS.length];
+
+    static {
+        for (int i = 0; i < Timer.BUCKET_BOUNDS.length; i++) {
+            BUCKET_LABELS[i] = "le=\"" + seconds(Timer.BUCKET_BOUNDS[i]) + "\"";
+        }
+    }
+
+    private PrometheusTextFormat() {}
+
+    public static void write(MetricRegistry registry, Writer writer) throws IOException {
+        String family = null;
+        for (final Metric metric : registry.getMetrics()) {
+            final boolean first = !metric.getName().equals(family);
+            family = metric.getName();
+
+            if (metric instanceof Timer) {
+                writeTimer((Timer) metric, first, writer);
+            } else if (metric instanceof Counter) {
+                writeCounter((Counter) metric, first, writer);
+            } else if (metric instanceof Gauge) {
+                writeGauge((Gauge) metric, first, writer);
+            }
+        }
+    }
+
+    private static void writeCounter(Counter counter, boolean first, Writer writer)
+            throws IOException {
+        final String name = name(counter) + "_total";
+        if (first) {
+            writeHeader(name, counter.getDescription(), "counter", writer);
+        }
+        writeSample(name, counter.getLabels(), null, Long.toString(counter.getCount()), writer);
+    }
+
+    private static void writeGauge(Gauge gauge, boolean first, Writer writer) throws IOException {
+        final String name = name(gauge);
+        if (first) {
+            writeHeader(name, gauge.getDescription(), "gauge", writer);
+        }
+        writeSample(name, gauge.getLabels(), null, Long.toString(gauge.getValue()), writer);
+    }
+
+    private static void writeTimer(Timer timer, boolean first, Writer writer) throws IOException {
+        final String name = name(timer) + "_seconds";
+        final String labels = timer.getLabels();
+
+        // Read the count from the buckets so the histogram is consistent
+        final long[] buckets = timer.getBucketCounts();
+        long cumulative = 0;
+
+        if (first) {
+            writeHeader(name, timer.getDescription(), "histogram", writer);
+        }
+        for (int i = 0; i < BUCKET_LABELS.length; i++) {
+            cumulative += buckets[i];
+            writeSample(
+                    name + "_bucket", labels, BUCKET_LABELS[i], Long.toString(cumulative), writer);
+        }
+        cumulative += buckets[BUCKET_LABELS.length];
+        writeSample(name + "_bucket", labels, "le=\"+Inf\"", Long.toString(cumulative), writer);
+        writeSample(name + "_sum", labels, null, seconds(timer.getTotalNanos()), writer);
+        writeSample(name + "_count", labels, null, Long.toString(cumulative), writer);
+
+        // A separate family, Prometheus does not allow extra samples in a histogram
+        final String maxName = name + "_max";
+        if (first) {
+            writeHeader(maxName, "Maximum of " + name, "gauge", writer);
+        }
+        writeSample(maxName, labels, null, seconds(timer.getMaxNanos()), writer);
+    }
+
+    private static void writeHeader(String name, String help, String type, Writer writer)
+            throws IOException {
+        writer.write("# HELP ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(help.replace("\\", "\\\\").replace("\n", "\\n"));
+        writer.write("\n# TYPE ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    private static void writeSample(
+            String name, String labels, String extraLabel, String value, Writer writer)
+            throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    writer.write(',');
+                }
+                writer.write(extraLabel);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(value);
+        writer.write('\n');
+    }
+
+    private static String name(Metric metric) {
+        return metric.getName().replace('.', '_');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long an operation takes: the number of times it ran, the total and maximum time,
+ * and a histogram over fixed latency buckets.
+ *
+ * <p>Recording a duration allocates nothing and takes no locks, so timers can wrap code run on
+ * every request:
+ *
+ * <pre>
+ * final long start = System.nanoTime();
+ * try {
+ *     ...
+ * } finally {
+ *     timer.record(System.nanoTime() - start);
+ * }
+ * </pre>
+ *
+ */
+public class Timer extends Metric implements TimerMBean {
+    /** Upper bounds of the histogram buckets, in nanoseconds */
+    static final long[] BUCKET_BOUNDS = {
+        TimeUnit.MICROSECONDS.toNanos(100),
+        TimeUnit.MICROSECONDS.toNanos(500),
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.MICROSECONDS.toNanos(2500),
+        TimeUnit.MILLISECONDS.toNanos(5),
+        TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(25),
+        TimeUnit.MILLISECONDS.toNanos(50),
+        TimeUnit.MILLISECONDS.toNanos(100),
+        TimeUnit.MILLISECONDS.toNanos(250),
+        TimeUnit.MILLISECONDS.toNanos(500),
+        TimeUnit.SECONDS.toNanos(1),
+        TimeUnit.MILLISECONDS.toNanos(2500),
+        TimeUnit.SECONDS.toNanos(5),
+        TimeUnit.SECONDS.toNanos(10)
+    };
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** Counts per bucket, the last bucket holds durations above every bound */
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+    Timer(String name, String labels, String description) {
+        super(name, labels, description);
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /** @param nanos Duration of one run of the timed operation */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.count.increment();
+        this.totalNanos.add(nanos);
+
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+            max = this.maxNanos.get();
+        }
+
+        int bucket = Arrays.binarySearch(BUCKET_BOUNDS, nanos);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        this.buckets[bucket].increment();
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getTotalNanos() {
+        return this.totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return this.maxNanos.get();
+    }
+
+    public double getTotalMillis() {
+        return this.totalNanos.sum() / 1000000.0;
+    }
+
+    public double getMeanMillis() {
+        final long count = this.count.sum();
+        return count == 0 ? 0 : this.totalNanos.sum() / (count * 1000000.0);
+    }
+
+    public double getMaxMillis() {
+        return this.maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * @return number of recorded durations up to each bucket bound, not cumulative; the last
+     *     element counts durations above every bound
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[this.buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        this.count.reset();
+        this.totalNanos.reset();
+        this.maxNanos.set(0);
+        for (final LongAdder bucket : this.buckets) {
+            bucket.reset();
+        }
+    }
+}
@@ -14,14 +14,23 @@
  */
 package org.apereo.portal.cas.services.web;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.cas.metrics.Counter;
+import org.apereo.portal.cas.metrics.MetricRegistry;
+import org.apereo.portal.cas.metrics.Timer;
+import org.apereo.portal.cas.util.BoundedExpiringCache;
 import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.services.RegisteredService;
 import org.jasig.cas.services.ServicesManager;
@@ -41,49 +50,124 @@ import org.springframework.web.servlet.theme.AbstractThemeResolver;
  * to determine if an alternate theme name is configured for the current user agent. This class is
  * designed to allow us to define alternate themes for mobile devices on a per-service basis.
  *
+ * <p>Real traffic carries relatively few distinct user agents, so the override resolved for each
+ * (theme name, user agent) pair is remembered in a bounded LRU cache. The regular expressions for a
+ * theme can also be combined into a single alternation so a user agent is matched in one pass.
+ *
+ * <p>Finding the registered service for a service URL scans the services registry, so the theme
+ * of each service URL is also cached. The cache is cleared when the registered services change,
+ * which is checked at most once every servicesReloadCheckIntervalMillis.
+ *
  */
 public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeResolver {
 
+    /** Default maximum number of (theme name, user agent) pairs remembered */
+    public static final int DEFAULT_USER_AGENT_CACHE_SIZE = 5000;
+
+    /** Default maximum number of service URLs the theme is remembered for */
+    public static final int DEFAULT_SERVICE_THEME_CACHE_SIZE = 10000;
+
+    /** Default time between checks for changes to the registered services, in milliseconds */
+    public static final long DEFAULT_SERVICES_RELOAD_CHECK_INTERVAL_MILLIS = 5000;
+
+    /** Cached for services without a theme of their own */
+    private static final String NO_THEME = "";
+
+    /** Matches a numeric back reference, which would change meaning in a combined pattern */
+    private static final Pattern BACK_REFERENCE =
+            Pattern.compile("(?<!\\\\)(?:\\\\\\\\)*\\\\[1-9]");
+
     /** The ServiceRegistry to look up the service. */
     private ServicesManager servicesManager;
 
     private List<ArgumentExtractor> argumentExtractors;
 
-    private Map<String, Map<Pattern, String>> overrides;
+    private Map<String, Map<String, String>> overrideMappings;
+
+    private Map<String, ThemeOverrides> overrides = new HashMap<String, ThemeOverrides>();
+
+    private boolean combinePatterns = false;
+
+    private BoundedExpiringCache<ThemeUserAgent, String> resolvedThemes =
+            new BoundedExpiringCache<ThemeUserAgent, String>(DEFAULT_USER_AGENT_CACHE_SIZE, 0);
+
+    private BoundedExpiringCache<String, String> serviceThemes =
+            new BoundedExpiringCache<String, String>(DEFAULT_SERVICE_THEME_CACHE_SIZE, 0);
+    private long servicesReloadCheckIntervalMillis = DEFAULT_SERVICES_RELOAD_CHECK_INTERVAL_MILLIS;
+    private final AtomicLong nextServicesReloadCheck = new AtomicLong();
+    private final AtomicInteger serviceThemesGeneration = new AtomicInteger();
+    private volatile long servicesFingerprint;
+
+    private Timer resolveTimer;
+    private Timer matchTimer;
+    private Counter userAgentCacheHits;
+    private Counter userAgentCacheMisses;
+
+    public ConfigurableUserAgentOverrideThemeResolver() {
+        setMetricRegistry(MetricRegistry.getDefault());
+    }
 
     /*
      * (non-Javadoc)
      * @see org.springframework.web.servlet.ThemeResolver#resolveThemeName(javax.servlet.http.HttpServletRequest)
      */
     public String resolveThemeName(HttpServletRequest request) {
+        final long start = System.nanoTime();
+        try {
+            return resolveThemeNameInternal(request);
+        } finally {
+            this.resolveTimer.record(System.nanoTime() - start);
+        }
+    }
+
+    private String resolveThemeNameInternal(HttpServletRequest request) {
 
         // get the theme name indicated by the service
         String themeName = resolveServiceThemeName(request);
 
         /*
-         * If the overrides map contains overrides for this theme name, iterate
-         * through the mapped user agent regexes for this theme name.  If we
-         * find a matching regex, set the theme name to the one mapped to that
-         * regex.
+         * If the overrides map contains overrides for this theme name, find
+         * the first mapped user agent regex matching the user agent and use
+         * the theme name mapped to that regex.
          */
+        final ThemeOverrides themeOverrides = this.overrides.get(themeName);
 
-        if (overrides.containsKey(themeName)) {
+        if (themeOverrides != null) {
 
-            // retrieve the user agent string from the request
+            // retrieve the user agent string from the request, without one there is nothing to
+            // match
             String userAgent = request.getHeader("User-Agent");
+            if (userAgent == null) {
+                return themeName;
+            }
 
-            for (Entry<Pattern, String> entry : overrides.get(themeName).entrySet()) {
-                if (entry.getKey().matcher(userAgent).matches()) {
-                    return entry.getValue();
+            final BoundedExpiringCache<ThemeUserAgent, String> cache = this.resolvedThemes;
+            final ThemeUserAgent key =
+                    cache != null ? new ThemeUserAgent(themeName, userAgent) : null;
+            if (cache != null) {
+                final String resolvedThemeName = cache.get(key);
+                if (resolvedThemeName != null) {
+                    this.userAgentCacheHits.increment();
+                    return resolvedThemeName;
                 }
+                this.userAgentCacheMisses.increment();
+            }
+
+            final long start = System.nanoTime();
+            final String override = themeOverrides.match(userAgent);
+            this.matchTimer.record(System.nanoTime() - start);
+
+            final String resolvedThemeName = override != null ? override : themeName;
+            if (cache != null) {
+                cache.put(key, resolvedThemeName);
             }
+            return resolvedThemeName;
         }
 
         // if no override was found for the current theme and user agent,
         // return the default theme for this service
         return themeName;
     }
-
     /*
      * (non-Javadoc)
      * @see org.springframework.web.servlet.ThemeResolver#setThemeName(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, java.lang.String)
@@ -105,12 +189,89 @@ public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeRes
         }
 
         final Service service = WebUtils.getService(this.argumentExtractors, request);
+        if (service == null) {
+            return getDefaultThemeName();
+        }
+
+        final BoundedExpiringCache<String, String> cache = this.serviceThemes;
+        final String serviceId = service.getId();
+        if (cache == null || serviceId == null) {
+            return themeOrDefault(findServiceTheme(service));
+        }
+
+        checkServicesReloaded();
 
+        String theme = cache.get(serviceId);
+        if (theme == null) {
+            final int generation = this.serviceThemesGeneration.get();
+            theme = findServiceTheme(service);
+            // Do not cache a theme found before the services changed
+            if (generation == this.serviceThemesGeneration.get()) {
+                cache.put(serviceId, theme);
+            }
+        }
+        return themeOrDefault(theme);
+    }
+
+    /** @return theme of the registered service matching the service, NO_THEME if there is none */
+    private String findServiceTheme(Service service) {
         final RegisteredService rService = this.servicesManager.findServiceBy(service);
 
-        return service != null && rService != null && StringUtils.hasText(rService.getTheme())
+        return rService != null && StringUtils.hasText(rService.getTheme())
                 ? rService.getTheme()
-                : getDefaultThemeName();
+                : NO_THEME;
+    }
+
+    private String themeOrDefault(String theme) {
+        return !NO_THEME.equals(theme) ? theme : getDefaultThemeName();
+    }
+
+    /**
+     * Clears the cached themes if the registered services changed. Services managers reload on
+     * their own schedule without notifying anyone, so a fingerprint of the registered services is
+     * compared instead.
+     */
+    private void checkServicesReloaded() {
+        final long now = System.currentTimeMillis();
+        final long nextCheck = this.nextServicesReloadCheck.get();
+        if (now < nextCheck
+                || !this.nextServicesReloadCheck.compareAndSet(
+                        nextCheck, now + this.servicesReloadCheckIntervalMillis)) {
+            return;
+        }
+
+        final long fingerprint = fingerprint(this.servicesManager.getAllServices());
+        if (fingerprint != this.servicesFingerprint) {
+            this.servicesFingerprint = fingerprint;
+            invalidateServiceThemes();
+        }
+    }
+
+    private static long fingerprint(Collection<RegisteredService> services) {
+        long fingerprint = services.size();
+        for (final RegisteredService service : services) {
+            long hash = System.identityHashCode(service);
+            hash = 31 * hash + service.getId();
+            hash = 31 * hash + service.getEvaluationOrder();
+            hash = 31 * hash + hashCode(service.getServiceId());
+            hash = 31 * hash + hashCode(service.getTheme());
+            // services are not returned in any particular order
+            fingerprint += hash;
+        }
+        return fingerprint;
+    }
+
+    private static int hashCode(String value) {
+        return value != null ? value.hashCode() : 0;
+    }
+
+    /** Forgets the cached theme of every service URL, e.g. after changing registered services. */
+    public void invalidateServiceThemes() {
+        this.serviceThemesGeneration.incrementAndGet();
+        final BoundedExpiringCache<String, String> cache = this.serviceThemes;
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     public void setServicesManager(final ServicesManager servicesManager) {
@@ -128,17 +289,233 @@ public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeRes
      * @param overrides
      */
     public void setOverrides(Map<String, Map<String, String>> overrides) {
-        // initialize the overrides variable to an empty map
-        this.overrides = new HashMap<String, Map<Pattern, String>>();
-
-        // convert the provided map's regular expressions to Pattern objects
-        for (Entry<String, Map<String, String>> themeMapping : overrides.entrySet()) {
-            Map<Pattern, String> mappings = new LinkedHashMap<Pattern, String>();
-            for (Entry<String, String> browserMapping : themeMapping.getValue().entrySet()) {
-                Pattern p = Pattern.compile(browserMapping.getKey());
-                mappings.put(p, browserMapping.getValue());
+        this.overrideMappings = overrides;
+        compileOverrides();
+    }
+
+    /**
+     * @param combinePatterns If true the user agent regular expressions for a theme are compiled
+     *     into a single alternation, so each user agent is matched in one pass instead of one pass
+     *     per expression. Themes with expressions that can not be combined, such as expressions
+     *     using back references, are still matched one expression at a time. Defaults to false.
+     */
+    public void setCombinePatterns(boolean combinePatterns) {
+        this.combinePatterns = combinePatterns;
+        compileOverrides();
+    }
+
+    /**
+     * @param userAgentCacheSize Maximum number of (theme name, user agent) pairs to remember the
+     *     resolved theme for, 0 to match every request
+     */
+    public void setUserAgentCacheSize(int userAgentCacheSize) {
+        this.resolvedThemes =
+                userAgentCacheSize > 0
+                        ? new BoundedExpiringCache<ThemeUserAgent, String>(userAgentCacheSize, 0)
+                        : null;
+    }
+
+    /**
+     * @param serviceThemeCacheSize Maximum number of service URLs to remember the theme for, 0 to
+     *     look up the registered service on every request
+     */
+    public void setServiceThemeCacheSize(int serviceThemeCacheSize) {
+        this.serviceThemes =
+                serviceThemeCacheSize > 0
+                        ? new BoundedExpiringCache<String, String>(serviceThemeCacheSize, 0)
+                        : null;
+    }
+
+    /**
+     * @param servicesReloadCheckIntervalMillis Minimum time between checks for changes to the
+     *     registered services, 0 to check on every request. Changes may take this long to be seen.
+     */
+    public void setServicesReloadCheckIntervalMillis(long servicesReloadCheckIntervalMillis) {
+        this.servicesReloadCheckIntervalMillis = servicesReloadCheckIntervalMillis;
+        this.nextServicesReloadCheck.set(0);
+    }
+
+    /**
+     * @param metricRegistry registry to record theme resolution time, user agent cache hits and
+     *     misses, and user agent matching time in, defaults to {@link MetricRegistry#getDefault()}
+     */
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        this.resolveTimer =
+                metricRegistry.timer("cas.theme.resolve", "Time spent resolving the CAS theme");
+        this.matchTimer =
+                metricRegistry.timer(
+                        "cas.theme.userAgent.match",
+                        "Time spent matching user agents against the theme overrides");
+        this.userAgentCacheHits =
+                metricRegistry.counter(
+                        "cas.theme.userAgent.cache.hits",
+                        "Theme overrides found in the user agent cache");
+        this.userAgentCacheMisses =
+                metricRegistry.counter(
+                        "cas.theme.userAgent.cache.misses",
+                        "Theme overrides not found in the user agent cache");
+    }
+
+    /** @return number of requests whose service theme was found in the service theme cache */
+    public long getServiceThemeCacheHits() {
+        return this.serviceThemes != null ? this.serviceThemes.getHits() : 0;
+    }
+
+    /** @return number of requests whose service theme was not found in the service theme cache */
+    public long getServiceThemeCacheMisses() {
+        return this.serviceThemes != null ? this.serviceThemes.getMisses() : 0;
+    }
+
+    /** @return number of requests whose theme was found in the user agent cache */
+    public long getCacheHits() {
+        return this.resolvedThemes != null ? this.resolvedThemes.getHits() : 0;
+    }
+
+    /** @return number of requests whose theme was not found in the user agent cache */
+    public long getCacheMisses() {
+        return this.resolvedThemes != null ? this.resolvedThemes.getMisses() : 0;
+    }
+
+    /** @return fraction of cache lookups that were hits, 0 if there were none */
+    public double getCacheHitRatio() {
+        final long hits = getCacheHits();
+        final long lookups = hits + getCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /** @return number of times user agents were matched against the override expressions */
+    public long getMatchCount() {
+        return this.matchTimer.getCount();
+    }
+
+    /** @return total time spent matching user agents, in nanoseconds */
+    public long getMatchNanos() {
+        return this.matchTimer.getTotalNanos();
+    }
+
+    private void compileOverrides() {
+        final Map<String, ThemeOverrides> compiled = new HashMap<String, ThemeOverrides>();
+        if (this.overrideMappings != null) {
+            // convert the provided map's regular expressions to Pattern objects
+            for (Entry<String, Map<String, String>> themeMapping :
+                    this.overrideMappings.entrySet()) {
+                compiled.put(
+                        themeMapping.getKey(),
+                        new ThemeOverrides(themeMapping.getValue(), this.combinePatterns));
+            }
+        }
+        this.overrides = compiled;
+        if (this.resolvedThemes != null) {
+            this.resolvedThemes.clear();
+        }
+    }
+
+    /** User agent overrides for one theme name, in configuration order. */
+    private static final class ThemeOverrides {
+        private final Pattern[] patterns;
+        private final String[] themeNames;
+
+        /** Combined alternation of all patterns, null to match them one at a time */
+        private final Pattern combined;
+
+        /** Capturing group of each pattern in the combined pattern */
+        private final int[] groups;
+
+        ThemeOverrides(Map<String, String> browserMappings, boolean combine) {
+            final int size = browserMappings.size();
+            this.patterns = new Pattern[size];
+            this.themeNames = new String[size];
+
+            int i = 0;
+            for (Entry<String, String> browserMapping : browserMappings.entrySet()) {
+                this.patterns[i] = Pattern.compile(browserMapping.getKey());
+                this.themeNames[i] = browserMapping.getValue();
+                i++;
+            }
+
+            this.groups = new int[size];
+            this.combined = combine && size > 1 ? combine() : null;
+        }
+
+        /**
+         * Combines the patterns into <code>(p1)|(p2)|...</code>. Alternatives are tried in order,
+         * so the first capturing group that participated in the match identifies the same pattern
+         * matching one at a time would have found.
+         *
+         * @return the combined pattern, null if the patterns can not be combined
+         */
+        private Pattern combine() {
+            final List<String> alternatives = new ArrayList<String>(this.patterns.length);
+            int group = 1;
+            for (int i = 0; i < this.patterns.length; i++) {
+                final String regex = this.patterns[i].pattern();
+                if (BACK_REFERENCE.matcher(regex).find()) {
+                    return null;
+                }
+                alternatives.add("(" + regex + ")");
+                this.groups[i] = group;
+                group += this.patterns[i].matcher("").groupCount() + 1;
+            }
+
+            try {
+                return Pattern.compile(StringUtils.collectionToDelimitedString(alternatives, "|"));
+            } catch (PatternSyntaxException e) {
+                // e.g. the same named group used by more than one pattern
+                return null;
+            }
+        }
+
+        /** @return the override theme name for the user agent, null if there is none */
+        String match(String userAgent) {
+            if (this.combined != null) {
+                final Matcher matcher = this.combined.matcher(userAgent);
+                if (matcher.matches()) {
+                    for (int i = 0; i < this.groups.length; i++) {
+                        if (matcher.start(this.groups[i]) != -1) {
+                            return this.themeNames[i];
+                        }
+                    }
+                }
+                return null;
+            }
+
+            for (int i = 0; i < this.patterns.length; i++) {
+                if (this.patterns[i].matcher(userAgent).matches()) {
+                    return this.themeNames[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Key of the user agent cache. */
+    private static final class ThemeUserAgent {
+        private final String themeName;
+        private final String userAgent;
+        private final int hashCode;
+
+        ThemeUserAgent(String themeName, String userAgent) {
+            this.themeName = themeName;
+            this.userAgent = userAgent;
+            this.hashCode = 31 * themeName.hashCode() + userAgent.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ThemeUserAgent)) {
+                return false;
             }
-            this.overrides.put(themeMapping.getKey(), mappings);
+            final ThemeUserAgent other = (ThemeUserAgent) obj;
+            return this.themeName.equals(other.themeName)
+                    && this.userAgent.equals(other.userAgent);
         }
     }
 }
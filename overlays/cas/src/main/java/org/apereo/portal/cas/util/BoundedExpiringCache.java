@@ -0,0 +1,171 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small thread-safe LRU cache with an optional time-to-live. Entries beyond the maximum size are
+ * evicted in least-recently-used order; expired entries are evicted when they are next read.
+ *
+ * <p>CAS does not give the overlay a cache abstraction, and the hot paths that use this class hold
+ * the lock for a map operation only, so a synchronized access-ordered {@link LinkedHashMap} is
+ * sufficient.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BoundedExpiringCache<K, V> {
+
+    private final int maxSize;
+    private final long timeToLiveMillis;
+    private final Map<K, Holder<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize Maximum number of entries held by the cache, must be positive
+     * @param timeToLiveMillis Time after which an entry expires, zero or less for no expiry
+     */
+    public BoundedExpiringCache(final int maxSize, final long timeToLiveMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries =
+                new LinkedHashMap<K, Holder<V>>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, Holder<V>> eldest) {
+                        if (size() > BoundedExpiringCache.this.maxSize) {
+                            evictions.incrementAndGet();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+    }
+
+    /** @return the cached value for the key, null if it is absent or has expired */
+    public V get(K key) {
+        final long now = currentTimeMillis();
+        synchronized (this.entries) {
+            final Holder<V> holder = this.entries.get(key);
+            if (holder == null) {
+                this.misses.incrementAndGet();
+                return null;
+            }
+            if (holder.isExpired(now)) {
+                this.entries.remove(key);
+                this.evictions.incrementAndGet();
+                this.misses.incrementAndGet();
+                return null;
+            }
+            this.hits.incrementAndGet();
+            return holder.value;
+        }
+    }
+
+    public void put(K key, V value) {
+        final long expires =
+                this.timeToLiveMillis > 0 ? currentTimeMillis() + this.timeToLiveMillis : 0;
+        synchronized (this.entries) {
+            this.entries.put(key, new Holder<V>(value, expires));
+        }
+    }
+
+    /** @return the value that was removed, null if there was none */
+    public V remove(K key) {
+        synchronized (this.entries) {
+            final Holder<V> holder = this.entries.remove(key);
+            return holder != null ? holder.value : null;
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /** Removes all expired entries, counting them as evictions. */
+    public void purgeExpired() {
+        if (this.timeToLiveMillis <= 0) {
+            return;
+        }
+        final long now = currentTimeMillis();
+        synchronized (this.entries) {
+            for (final Iterator<Holder<V>> it = this.entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                    this.evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getTimeToLiveMillis() {
+        return this.timeToLiveMillis;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /** @return number of entries removed because of the size bound or their time-to-live */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /** Time source for expiry, overridable for testing. */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static final class Holder<V> {
+        private final V value;
+        private final long expires;
+
+        Holder(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return this.expires != 0 && now >= this.expires;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import junit.framework.TestCase;
+import org.apereo.portal.cas.util.BoundedExpiringCache;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ */
+public class CachingUserPasswordDaoTest extends TestCase {
+    private JdbcTemplate jdbcTemplate;
+    private DataSource dataSource;
+    private CountingUserPasswordDao countingUserPasswordDao;
+    private TestClockCache<String> passwordHashes;
+    private TestClockCache<Boolean> missingUsers;
+    private CachingUserPasswordDao userPasswordDao;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        this.dataSource =
+                new SimpleDriverDataSource(
+                        new org.hsqldb.jdbcDriver(), "jdbc:hsqldb:mem:CasCacheTest", "sa", "");
+
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        this.jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_DIR (USER_NAME VARCHAR(1000), ENCRPTD_PSWD VARCHAR(1000))");
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('foobar', 'pass1')");
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('student', 'pass2')");
+
+        final PortalPersonDirUserPasswordDao portalPersonDirUserPasswordDao =
+                new PortalPersonDirUserPasswordDao();
+        portalPersonDirUserPasswordDao.setDataSource(this.dataSource);
+        this.countingUserPasswordDao = new CountingUserPasswordDao(portalPersonDirUserPasswordDao);
+
+        this.passwordHashes = new TestClockCache<String>(100, 60000);
+        this.missingUsers = new TestClockCache<Boolean>(100, 10000);
+        this.userPasswordDao = new CachingUserPasswordDao(this.passwordHashes, this.missingUsers);
+        this.userPasswordDao.setUserPasswordDao(this.countingUserPasswordDao);
+    }
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#tearDown()
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        this.jdbcTemplate.execute("SHUTDOWN");
+
+        this.dataSource = null;
+        this.jdbcTemplate = null;
+        this.userPasswordDao = null;
+    }
+
+    public void testCachedPasswordHash() {
+        assertEquals("pass1", this.userPasswordDao.getPasswordHash("foobar"));
+        this.jdbcTemplate.update("UPDATE UP_PERSON_DIR SET ENCRPTD_PSWD = 'changed'");
+        assertEquals("pass1", this.userPasswordDao.getPasswordHash("foobar"));
+        assertEquals(1, this.countingUserPasswordDao.lookups.get());
+        assertEquals(1, this.userPasswordDao.getHits());
+
+        this.passwordHashes.now = 60000;
+        assertEquals("changed", this.userPasswordDao.getPasswordHash("foobar"));
+        assertEquals(2, this.countingUserPasswordDao.lookups.get());
+    }
+
+    public void testNonExistantUserIsRemembered() {
+        assertNull(this.userPasswordDao.getPasswordHash("missing"));
+        assertNull(this.userPasswordDao.getPasswordHash("missing"));
+        assertNull(this.userPasswordDao.getPasswordHash("missing"));
+        assertEquals(1, this.countingUserPasswordDao.lookups.get());
+        assertEquals(2, this.userPasswordDao.getNegativeHits());
+
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('missing', 'pass3')");
+        this.missingUsers.now = 10000;
+        assertEquals("pass3", this.userPasswordDao.getPasswordHash("missing"));
+        assertEquals(2, this.countingUserPasswordDao.lookups.get());
+    }
+
+    public void testInvalidate() {
+        assertEquals("pass1", this.userPasswordDao.getPasswordHash("foobar"));
+        this.jdbcTemplate.update("UPDATE UP_PERSON_DIR SET ENCRPTD_PSWD = 'changed'");
+
+        this.userPasswordDao.invalidate("foobar");
+
+        assertEquals("changed", this.userPasswordDao.getPasswordHash("foobar"));
+    }
+
+    public void testPasswordHashes() {
+        assertEquals("pass1", this.userPasswordDao.getPasswordHash("foobar"));
+        assertNull(this.userPasswordDao.getPasswordHash("missing"));
+
+        final Map<String, String> passwordHashes =
+                this.userPasswordDao.getPasswordHashes(
+                        Arrays.asList("foobar", "student", "missing", "other"));
+
+        assertEquals(2, passwordHashes.size());
+        assertEquals("pass1", passwordHashes.get("foobar"));
+        assertEquals("pass2", passwordHashes.get("student"));
+        assertEquals(Arrays.asList("student", "other"), this.countingUserPasswordDao.lastBulk);
+
+        // Everything is now cached, positively or negatively
+        this.userPasswordDao.getPasswordHashes(Arrays.asList("foobar", "student", "other"));
+        assertEquals(1, this.countingUserPasswordDao.bulkLookups.get());
+        assertEquals("pass2", this.userPasswordDao.getPasswordHash("student"));
+        assertNull(this.userPasswordDao.getPasswordHash("other"));
+        assertEquals(2, this.countingUserPasswordDao.lookups.get());
+    }
+
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingUserPasswordDao blockingUserPasswordDao =
+                new BlockingUserPasswordDao(this.countingUserPasswordDao, release);
+        this.userPasswordDao.setUserPasswordDao(blockingUserPasswordDao);
+
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final Callable<String> lookup =
+                    new Callable<String>() {
+                        public String call() {
+                            return userPasswordDao.getPasswordHash("foobar");
+                        }
+                    };
+            final Future<?>[] results = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                results[i] = executor.submit(lookup);
+            }
+
+            // Release the query only once every other thread has joined it
+            blockingUserPasswordDao.entered.await();
+            final long deadline = System.currentTimeMillis() + 30000;
+            while (this.userPasswordDao.getCoalescedLoads() < threads - 1) {
+                assertTrue(
+                        "Threads did not join the query in progress",
+                        System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (final Future<?> result : results) {
+                assertEquals("pass1", result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, this.countingUserPasswordDao.lookups.get());
+        assertEquals(threads - 1, this.userPasswordDao.getCoalescedLoads());
+    }
+
+    private static class CountingUserPasswordDao implements UserPasswordDao {
+        private final UserPasswordDao delegate;
+        private final AtomicInteger lookups = new AtomicInteger();
+        private final AtomicInteger bulkLookups = new AtomicInteger();
+        private volatile Collection<String> lastBulk;
+
+        CountingUserPasswordDao(UserPasswordDao delegate) {
+            this.delegate = delegate;
+        }
+
+        public String getPasswordHash(String userName) {
+            this.lookups.incrementAndGet();
+            return this.delegate.getPasswordHash(userName);
+        }
+
+        public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+            this.bulkLookups.incrementAndGet();
+            this.lastBulk = userNames;
+            return this.delegate.getPasswordHashes(userNames);
+        }
+    }
+
+    private static class BlockingUserPasswordDao implements UserPasswordDao {
+        private final UserPasswordDao delegate;
+        private final CountDownLatch release;
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        BlockingUserPasswordDao(UserPasswordDao delegate, CountDownLatch release) {
+            this.delegate = delegate;
+            this.release = release;
+        }
+
+        public String getPasswordHash(String userName) {
+            this.entered.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return this.delegate.getPasswordHash(userName);
+        }
+
+        public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+            return this.delegate.getPasswordHashes(userNames);
+        }
+    }
+
+    private static class TestClockCache<V> extends BoundedExpiringCache<String, V> {
+        private long now = 0;
+
+        TestClockCache(int maxSize, long timeToLiveMillis) {
+            super(maxSize, timeToLiveMillis);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.cas.metrics.Gauge;
+import org.apereo.portal.cas.metrics.Metric;
+import org.apereo.portal.cas.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ */
+public class HashVerificationExecutorTest {
+    private static final String MD5_HASH = "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt";
+
+    private final SaltedDigestPasswordHashScheme md5 =
+            new SaltedDigestPasswordHashScheme("(MD5)", "MD5", 1, 8);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final BlockingHashScheme blocking = new BlockingHashScheme(this.release);
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private HashVerificationExecutor executor;
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        this.clients.shutdownNow();
+        if (this.executor != null) {
+            this.executor.destroy();
+        }
+    }
+
+    @Test
+    public void testVerify() {
+        this.executor = new HashVerificationExecutor(2);
+        this.executor.setMetricRegistry(this.metricRegistry);
+
+        assertTrue(this.executor.verify(this.md5, "admin", MD5_HASH));
+        assertFalse(this.executor.verify(this.md5, "wrong", MD5_HASH));
+
+        assertEquals(2, this.executor.getThreads());
+        assertEquals(2, this.executor.getVerifyTimes().getCount());
+        assertEquals(2, this.executor.getWaitTimes().getCount());
+        assertEquals(0, this.executor.getRejections());
+        assertEquals(0, this.executor.getTimeouts());
+    }
+
+    @Test
+    public void testRejectedWhenSaturated() throws Exception {
+        this.executor = new HashVerificationExecutor(1, 1, 10000);
+        this.executor.setMetricRegistry(this.metricRegistry);
+
+        // Occupy the only thread, then fill the queue
+        final Future<Boolean> running = verifyInBackground();
+        this.blocking.entered.await();
+        final Future<Boolean> queued = verifyInBackground();
+        while (this.executor.getQueueDepth() == 0) {
+            Thread.sleep(5);
+        }
+
+        final long start = System.nanoTime();
+        assertFalse(this.executor.verify(this.blocking, "admin", MD5_HASH));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, this.executor.getRejections());
+        assertEquals(1, queueDepth().getValue());
+        assertEquals(
+                1,
+                this.metricRegistry
+                        .counter("cas.authentication.executor.rejected", "")
+                        .getCount());
+
+        this.release.countDown();
+        assertTrue(running.get());
+        assertTrue(queued.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        this.executor = new HashVerificationExecutor(1, 1, 100);
+        this.executor.setMetricRegistry(this.metricRegistry);
+
+        assertFalse(this.executor.verify(this.blocking, "admin", MD5_HASH));
+        assertEquals(1, this.executor.getTimeouts());
+        assertEquals(
+                1,
+                this.metricRegistry
+                        .counter("cas.authentication.executor.timeouts", "")
+                        .getCount());
+
+        // A verification that timed out in the queue is never run
+        assertFalse(this.executor.verify(this.blocking, "admin", MD5_HASH));
+        this.release.countDown();
+        assertTrue(this.executor.verify(this.md5, "admin", MD5_HASH));
+        assertEquals(1, this.blocking.checks);
+    }
+
+    private Gauge queueDepth() {
+        for (final Metric metric : this.metricRegistry.getMetrics()) {
+            if (metric.getName().equals("cas.authentication.executor.queue")) {
+                return (Gauge) metric;
+            }
+        }
+        throw new AssertionError("The queue depth gauge is not registered");
+    }
+
+    private Future<Boolean> verifyInBackground() {
+        return this.clients.submit(
+                new Callable<Boolean>() {
+                    public Boolean call() {
+                        return executor.verify(blocking, "admin", MD5_HASH);
+                    }
+                });
+    }
+
+    private static class BlockingHashScheme implements PasswordHashScheme {
+        private final CountDownLatch release;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile int checks = 0;
+
+        BlockingHashScheme(CountDownLatch release) {
+            this.release = release;
+        }
+
+        public String getPrefix() {
+            return "(MD5)";
+        }
+
+        public boolean checkPassword(String cleartextPassword, String storedHash) {
+            this.checks++;
+            this.entered.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        public String hashPassword(String cleartextPassword) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
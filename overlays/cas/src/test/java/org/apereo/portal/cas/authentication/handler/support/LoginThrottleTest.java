@@ -0,0 +1,216 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.easymock.EasyMock;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Test;
+
+/**
+ */
+public class LoginThrottleTest {
+    private static final String ADMIN_HASH = "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt";
+
+    @Test
+    public void testUserLimit() {
+        final LoginThrottle throttle = new LoginThrottle(3, 100, 60);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(throttle.isThrottled("admin", "10.0.0." + i));
+            throttle.recordFailure("admin", "10.0.0." + i);
+        }
+
+        assertTrue(throttle.isThrottled("admin", "10.0.0.99"));
+        assertTrue(throttle.isThrottled("ADMIN", "10.0.0.99"));
+        assertFalse(throttle.isThrottled("student", "10.0.0.99"));
+        assertEquals(2, throttle.getUserRejections());
+        assertEquals(3, throttle.getUserFailures("admin"));
+    }
+
+    @Test
+    public void testAddressLimit() {
+        final LoginThrottle throttle = new LoginThrottle(100, 3, 60);
+        for (int i = 0; i < 3; i++) {
+            throttle.recordFailure("user" + i, "10.0.0.1");
+        }
+
+        assertTrue(throttle.isThrottled("someoneElse", "10.0.0.1"));
+        assertFalse(throttle.isThrottled("someoneElse", "10.0.0.2"));
+        assertFalse(throttle.isThrottled("someoneElse", null));
+        assertEquals(1, throttle.getAddressRejections());
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        final TestClockThrottle throttle = new TestClockThrottle(3, 100, 60, 3);
+        throttle.now = 0;
+        throttle.recordFailure("admin", null);
+        throttle.now = 20000;
+        throttle.recordFailure("admin", null);
+        throttle.now = 40000;
+        throttle.recordFailure("admin", null);
+        assertTrue(throttle.isThrottled("admin", null));
+
+        // The first failure leaves the window, the others are still in it
+        throttle.now = 60000;
+        assertFalse(throttle.isThrottled("admin", null));
+        assertEquals(2, throttle.getUserFailures("admin"));
+
+        // A new failure reuses the slot of the first one
+        throttle.recordFailure("admin", null);
+        assertEquals(3, throttle.getUserFailures("admin"));
+
+        throttle.now = 100000;
+        assertEquals(1, throttle.getUserFailures("admin"));
+        throttle.now = 1000000;
+        assertEquals(0, throttle.getUserFailures("admin"));
+    }
+
+    @Test
+    public void testFixedMemory() {
+        final LoginThrottle throttle = new LoginThrottle(10, 100, 60, 4, 65536, 4);
+        final long bytes = throttle.getCounterBytes();
+        assertEquals(65536 * 4 * 4 * 8, bytes);
+
+        // A flood of distinct usernames and addresses, three failures each
+        for (int i = 0; i < 20000; i++) {
+            for (int j = 0; j < 3; j++) {
+                throttle.recordFailure("guess" + i, "192.168." + (i >> 8 & 255) + "." + (i & 255));
+            }
+        }
+
+        assertEquals(bytes, throttle.getCounterBytes());
+        assertTrue(throttle.getUserFailures("guess12345") >= 3);
+        // Counts are overestimated under load, but the minimum over four rows stays usable
+        int throttled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (throttle.isThrottled("innocent" + i, null)) {
+                throttled++;
+            }
+        }
+        assertTrue("Innocent users throttled: " + throttled, throttled < 10);
+    }
+
+    @Test
+    public void testConcurrentFailures() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1000000, 1000000, 3600);
+        final int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+        final int failuresPerThread = 20000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(
+                        executor.submit(
+                                new Callable<Void>() {
+                                    @Override
+                                    public Void call() throws Exception {
+                                        start.await();
+                                        for (int i = 0; i < failuresPerThread; i++) {
+                                            // Every thread hammers the shared keys, and its own
+                                            throttle.recordFailure("admin", "10.0.0.1");
+                                            throttle.recordFailure("user" + thread, null);
+                                            throttle.isThrottled("admin", "10.0.0.1");
+                                        }
+                                        return null;
+                                    }
+                                }));
+            }
+            start.countDown();
+            for (final Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // No increment is lost to contention
+        assertEquals(threads * failuresPerThread, throttle.getUserFailures("admin"));
+        assertEquals(threads * failuresPerThread, throttle.getAddressFailures("10.0.0.1"));
+        for (int t = 0; t < threads; t++) {
+            assertTrue(throttle.getUserFailures("user" + t) >= failuresPerThread);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlotTooShort() {
+        // 1ms slots would overflow the period tag of the counters
+        new LoginThrottle(10, 100, 1, 1000, 1024, 4);
+    }
+
+    @Test
+    public void testHandlerRejectsBeforeLookup() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin")).andReturn(ADMIN_HASH).times(2);
+
+        final LoginThrottle throttle = new LoginThrottle(2, 100, 60);
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler() {
+                    @Override
+                    protected String getClientAddress() {
+                        return "10.0.0.1";
+                    }
+                };
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setLoginThrottle(throttle);
+
+        EasyMock.replay(userPasswordDao);
+
+        assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials("x")));
+        assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials("y")));
+        // Over the limit, even the right password is rejected without a lookup
+        assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials("admin")));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(2, throttle.getUserFailures("admin"));
+        assertEquals(2, throttle.getAddressFailures("10.0.0.1"));
+        assertEquals(1, throttle.getUserRejections());
+    }
+
+    private static UsernamePasswordCredentials credentials(String password) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("admin");
+        credentials.setPassword(password);
+        return credentials;
+    }
+
+    private static class TestClockThrottle extends LoginThrottle {
+        private long now = 0;
+
+        TestClockThrottle(
+                int maxFailuresPerUser, int maxFailuresPerAddress, long windowSeconds, int slots) {
+            super(maxFailuresPerUser, maxFailuresPerAddress, windowSeconds, slots, 1024, 4);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+}
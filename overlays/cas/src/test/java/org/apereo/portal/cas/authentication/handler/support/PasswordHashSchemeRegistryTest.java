@@ -0,0 +1,77 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ */
+public class PasswordHashSchemeRegistryTest {
+
+    @Test
+    public void testDefaultSchemes() {
+        final PasswordHashSchemeRegistry registry = PasswordHashSchemeRegistry.createDefault();
+
+        assertEquals(
+                PasswordHashSchemeRegistry.MD5_PREFIX,
+                registry.getScheme("(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt").getPrefix());
+        assertEquals(
+                PasswordHashSchemeRegistry.SHA256_PREFIX,
+                registry.getScheme("(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKe").getPrefix());
+    }
+
+    @Test
+    public void testUnknownPrefix() {
+        final PasswordHashSchemeRegistry registry = PasswordHashSchemeRegistry.createDefault();
+
+        assertNull(registry.getScheme(null));
+        assertNull(registry.getScheme(""));
+        assertNull(registry.getScheme("OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt"));
+        assertNull(registry.getScheme("(MD4)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt"));
+        assertNull(registry.getScheme("(MD5"));
+        assertNull(registry.getScheme("(SHA256-LONGER-THAN-ANY-PREFIX)"));
+    }
+
+    @Test
+    public void testManySchemes() {
+        final List<PasswordHashScheme> schemes = new ArrayList<PasswordHashScheme>();
+        for (int i = 0; i < 50; i++) {
+            schemes.add(new SaltedDigestPasswordHashScheme("(S" + i + ")", "SHA-256", 1, 8));
+        }
+        final PasswordHashSchemeRegistry registry = new PasswordHashSchemeRegistry(schemes);
+
+        for (final PasswordHashScheme scheme : schemes) {
+            assertSame(scheme, registry.getScheme(scheme.getPrefix() + "abcd"));
+            assertSame(scheme, registry.getSchemeByPrefix(scheme.getPrefix()));
+        }
+        assertNull(registry.getScheme("(S50)abcd"));
+        assertEquals(schemes, registry.getSchemes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatePrefix() {
+        new PasswordHashSchemeRegistry(
+                Arrays.<PasswordHashScheme>asList(
+                        new SaltedDigestPasswordHashScheme("(MD5)", "MD5", 1, 8),
+                        new SaltedDigestPasswordHashScheme("(MD5)", "MD5", 1, 16)));
+    }
+}
@@ -14,9 +14,13 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collection;
+import java.util.Map;
+import org.apereo.portal.cas.metrics.MetricRegistry;
 import org.easymock.EasyMock;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
 import org.junit.Test;
@@ -143,4 +147,179 @@ public class PersonDirAuthenticationHandlerTest {
 
         assertFalse(auth);
     }
+
+    @Test
+    public void testUnknownHashPrefix() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin"))
+                .andReturn("(MD4)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt");
+
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("admin");
+        credentials.setPassword("admin");
+
+        EasyMock.replay(userPasswordDao);
+
+        final boolean auth =
+                authenticationHandler.authenticateUsernamePasswordInternal(credentials);
+
+        EasyMock.verify(userPasswordDao);
+
+        assertFalse(auth);
+    }
+
+    @Test
+    public void testUpgradeMd5Password() throws Exception {
+        final MapUserPasswordDao userPasswordDao =
+                new MapUserPasswordDao("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt");
+
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setUpgradeScheme(
+                authenticationHandler
+                        .getPasswordHashSchemeRegistry()
+                        .getSchemeByPrefix(PasswordHashSchemeRegistry.SHA256_PREFIX));
+
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("admin");
+        credentials.setPassword("admin");
+
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+        assertEquals(1, userPasswordDao.updates);
+        assertTrue(userPasswordDao.passwordHash.startsWith("(SHA256)"));
+
+        // The upgraded hash is used from now on and is not upgraded again
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+        assertEquals(1, userPasswordDao.updates);
+
+        credentials.setPassword("wrong");
+        assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+    }
+
+    @Test
+    public void testFailedUpgradeStillAuthenticates() throws Exception {
+        final MapUserPasswordDao userPasswordDao =
+                new MapUserPasswordDao("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt");
+        userPasswordDao.failUpdates = true;
+
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setUpgradeScheme(
+                new SaltedDigestPasswordHashScheme("(SHA256)", "SHA-256", 1000, 8));
+
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("admin");
+        credentials.setPassword("admin");
+
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+        assertEquals("(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt", userPasswordDao.passwordHash);
+    }
+
+    @Test
+    public void testVerifyOnExecutor() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("student"))
+                .andReturn("(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA==")
+                .times(2);
+
+        final HashVerificationExecutor executor = new HashVerificationExecutor(1);
+        executor.setMetricRegistry(new MetricRegistry());
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setHashVerificationExecutor(executor);
+
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("student");
+        credentials.setPassword("wombat");
+
+        EasyMock.replay(userPasswordDao);
+
+        try {
+            assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+            credentials.setPassword("student");
+            assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+        } finally {
+            executor.destroy();
+        }
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(2, executor.getVerifyTimes().getCount());
+    }
+
+    @Test
+    public void testVerifyMetrics() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin"))
+                .andReturn("(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt");
+        EasyMock.expect(userPasswordDao.getPasswordHash("student"))
+                .andReturn("(MD4)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt");
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setMetricRegistry(metricRegistry);
+
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("admin");
+        credentials.setPassword("admin");
+
+        EasyMock.replay(userPasswordDao);
+
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+        credentials.setUsername("student");
+        assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(
+                1,
+                metricRegistry
+                        .timer("cas.authentication.hash.verify", "scheme=\"MD5\"", "")
+                        .getCount());
+        assertEquals(
+                1, metricRegistry.counter("cas.authentication.hash.unsupported", "").getCount());
+    }
+
+    private static class MapUserPasswordDao implements UpdatableUserPasswordDao {
+        private final String userName;
+        private String passwordHash;
+        private int updates = 0;
+        private boolean failUpdates = false;
+
+        MapUserPasswordDao(String userName, String passwordHash) {
+            this.userName = userName;
+            this.passwordHash = passwordHash;
+        }
+
+        public String getPasswordHash(String userName) {
+            return this.userName.equals(userName) ? this.passwordHash : null;
+        }
+
+        public Map<String, String> getPasswordHashes(Collection<String> userNames) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean updatePasswordHash(
+                String userName, String expectedPasswordHash, String newPasswordHash) {
+            if (this.failUpdates) {
+                throw new IllegalStateException("Database unavailable");
+            }
+            if (!this.userName.equals(userName)
+                    || !this.passwordHash.equals(expectedPasswordHash)) {
+                return false;
+            }
+            this.passwordHash = newPasswordHash;
+            this.updates++;
+            return true;
+        }
+    }
 }
@@ -14,6 +14,8 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import java.util.Arrays;
+import java.util.Map;
 import javax.sql.DataSource;
 import junit.framework.TestCase;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
@@ -79,4 +81,42 @@ public class PortalPersonDirUserPasswordDaoTest extends TestCase {
             //expected
         }
     }
+
+    public void testPasswordHashes() {
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('foobar', 'pass1')");
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('student', 'pass2')");
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('nohash', NULL)");
+
+        final Map<String, String> passwordHashes =
+                this.userPasswordDao.getPasswordHashes(
+                        Arrays.asList("foobar", "student", "nohash", "missing", "foobar"));
+        assertEquals(2, passwordHashes.size());
+        assertEquals("pass1", passwordHashes.get("foobar"));
+        assertEquals("pass2", passwordHashes.get("student"));
+    }
+
+    public void testPasswordHashesDuplicateUser() {
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('foobar', 'pass1')");
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('foobar', 'pass2')");
+
+        try {
+            this.userPasswordDao.getPasswordHashes(Arrays.asList("foobar"));
+            fail("should have thrown IncorrectResultSizeDataAccessException");
+        } catch (IncorrectResultSizeDataAccessException e) {
+            //expected
+        }
+    }
+
+    public void testUpdatePasswordHash() {
+        this.jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('foobar', 'pass1')");
+
+        assertTrue(this.userPasswordDao.updatePasswordHash("foobar", "pass1", "pass2"));
+        assertEquals("pass2", this.userPasswordDao.getPasswordHash("foobar"));
+
+        // The hash changed since it was read, the update is not applied
+        assertFalse(this.userPasswordDao.updatePasswordHash("foobar", "pass1", "pass3"));
+        assertEquals("pass2", this.userPasswordDao.getPasswordHash("foobar"));
+
+        assertFalse(this.userPasswordDao.updatePasswordHash("missing", "pass1", "pass3"));
+    }
 }
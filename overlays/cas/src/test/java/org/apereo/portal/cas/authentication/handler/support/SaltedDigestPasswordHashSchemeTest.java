@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.junit.Test;
+
+/**
+ */
+public class SaltedDigestPasswordHashSchemeTest {
+    private final SaltedDigestPasswordHashScheme md5 =
+            new SaltedDigestPasswordHashScheme("(MD5)", "MD5", 1, 8);
+    private final SaltedDigestPasswordHashScheme sha256 =
+            new SaltedDigestPasswordHashScheme("(SHA256)", "SHA-256", 1000, 8);
+
+    @Test
+    public void testKnownHashes() {
+        assertTrue(this.md5.checkPassword("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt"));
+        assertFalse(this.md5.checkPassword("admin", "(MD5)OP2Z89LDMIY5gHAwfoFPRSQWDl5Z16Vt"));
+        assertTrue(
+                this.sha256.checkPassword(
+                        "wombat",
+                        "(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA=="));
+        assertFalse(
+                this.sha256.checkPassword(
+                        "student",
+                        "(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA=="));
+    }
+
+    @Test
+    public void testMalformedHashes() {
+        assertFalse(this.md5.checkPassword("admin", "(SHA256)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt"));
+        assertFalse(this.md5.checkPassword("admin", "(MD5)"));
+        assertFalse(this.md5.checkPassword("admin", "(MD5)OP2Z89LDMIY6gHAwfoFP"));
+        assertFalse(this.md5.checkPassword("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16V!"));
+        assertFalse(
+                this.md5.checkPassword("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16VtOP2Z89LD"));
+        assertFalse(this.md5.checkPassword(null, "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt"));
+        assertFalse(this.md5.checkPassword("admin", null));
+    }
+
+    @Test
+    public void testHashPassword() {
+        final String hash = this.sha256.hashPassword("wombat");
+        assertTrue(hash.startsWith("(SHA256)"));
+        assertTrue(this.sha256.checkPassword("wombat", hash));
+        assertFalse(this.sha256.checkPassword("student", hash));
+
+        // Random salt
+        assertNotEquals(hash, this.sha256.hashPassword("wombat"));
+    }
+
+    @Test
+    public void testCompatibleWithJasypt() {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setIterations(1000);
+        config.setAlgorithm("SHA-256");
+        config.setSaltSizeBytes(8);
+        encryptor.setConfig(config);
+
+        final String password = "p\u00e4ssw\u00f6rd";
+        assertTrue(
+                encryptor.checkPassword(
+                        password, this.sha256.hashPassword(password).substring(8)));
+        assertTrue(
+                this.sha256.checkPassword(
+                        password, "(SHA256)" + encryptor.encryptPassword(password)));
+    }
+
+    @Test
+    public void testParameters() {
+        assertEquals("(SHA256)", this.sha256.getPrefix());
+        assertEquals("SHA-256", this.sha256.getAlgorithm());
+        assertEquals(1000, this.sha256.getIterations());
+        assertEquals(8, this.sha256.getSaltSizeBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        new SaltedDigestPasswordHashScheme("(FOO)", "FOO-1", 1, 8);
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apereo.portal.cas.authentication.handler.support.VerifiedCredentialCache.VerifiedCredential;
+import org.apereo.portal.cas.util.BoundedExpiringCache;
+import org.easymock.EasyMock;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.junit.Test;
+
+/**
+ */
+public class VerifiedCredentialCacheTest {
+    private static final String ADMIN_HASH = "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt";
+
+    @Test
+    public void testVerifiedPassword() {
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache();
+        assertFalse(cache.isVerified("admin", "admin", ADMIN_HASH));
+
+        cache.put("admin", "admin", ADMIN_HASH);
+
+        assertTrue(cache.isVerified("admin", "admin", ADMIN_HASH));
+        assertTrue(cache.isVerified("admin", "admin", null));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testWrongPassword() {
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache();
+        cache.put("admin", "admin", ADMIN_HASH);
+
+        assertFalse(cache.isVerified("admin", "Admin", ADMIN_HASH));
+        assertFalse(cache.isVerified("student", "admin", ADMIN_HASH));
+        assertFalse(cache.isVerified("admin", null, ADMIN_HASH));
+
+        // A wrong guess does not evict the remembered verification
+        assertTrue(cache.isVerified("admin", "admin", ADMIN_HASH));
+    }
+
+    @Test
+    public void testChangedStoredHash() {
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache();
+        cache.put("admin", "admin", ADMIN_HASH);
+
+        assertFalse(cache.isVerified("admin", "admin", "(MD5)OP2Z89LDMIY5gHAwfoFPRSQWDl5Z16Vt"));
+        assertFalse(cache.isVerified("admin", "admin", ADMIN_HASH));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testExpiry() {
+        final TestClockCache backingCache = new TestClockCache(10, 60000);
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache(backingCache);
+        cache.put("admin", "admin", ADMIN_HASH);
+
+        backingCache.now = 59999;
+        assertTrue(cache.isVerified("admin", "admin", ADMIN_HASH));
+
+        backingCache.now = 60000;
+        assertFalse(cache.isVerified("admin", "admin", ADMIN_HASH));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testSizeBound() {
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache(2, 60);
+        cache.put("a", "a", ADMIN_HASH);
+        cache.put("b", "b", ADMIN_HASH);
+        cache.put("c", "c", ADMIN_HASH);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.isVerified("a", "a", ADMIN_HASH));
+    }
+
+    @Test
+    public void testHandlerUsesCachedVerification() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin")).andReturn(ADMIN_HASH).times(2);
+
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache();
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setVerifiedCredentialCache(cache);
+
+        EasyMock.replay(userPasswordDao);
+
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials()));
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials()));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testHandlerSkipsLookupOnCacheHit() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin")).andReturn(ADMIN_HASH).once();
+
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache();
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setVerifiedCredentialCache(cache);
+        authenticationHandler.setSkipLookupOnCacheHit(true);
+
+        EasyMock.replay(userPasswordDao);
+
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials()));
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials()));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testHandlerInvalidatesRemovedUser() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin")).andReturn(ADMIN_HASH);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin")).andReturn(null);
+
+        final VerifiedCredentialCache cache = new VerifiedCredentialCache();
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setVerifiedCredentialCache(cache);
+
+        EasyMock.replay(userPasswordDao);
+
+        assertTrue(authenticationHandler.authenticateUsernamePasswordInternal(credentials()));
+        assertFalse(authenticationHandler.authenticateUsernamePasswordInternal(credentials()));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(0, cache.getSize());
+    }
+
+    private static UsernamePasswordCredentials credentials() {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("admin");
+        credentials.setPassword("admin");
+        return credentials;
+    }
+
+    private static class TestClockCache extends BoundedExpiringCache<String, VerifiedCredential> {
+        private long now = 0;
+
+        TestClockCache(int maxSize, long timeToLiveMillis) {
+            super(maxSize, timeToLiveMillis);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ */
+public class MetricRegistryTest {
+
+    @Test
+    public void testMetricsAreShared() {
+        final MetricRegistry registry = new MetricRegistry();
+
+        final Timer timer = registry.timer("cas.test", "scheme=\"MD5\"", "Test timer");
+        assertSame(timer, registry.timer("cas.test", "scheme=\"MD5\"", "Test timer"));
+        assertNotSame(timer, registry.timer("cas.test", "scheme=\"SHA256\"", "Test timer"));
+        assertSame(registry.counter("cas.count", "Test"), registry.counter("cas.count", "Test"));
+        assertEquals(3, registry.getMetrics().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeConflict() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.timer("cas.test", "Test timer");
+        registry.counter("cas.test", "Test counter");
+    }
+
+    @Test
+    public void testTimer() {
+        final Timer timer = new MetricRegistry().timer("cas.test", "Test timer");
+        timer.record(TimeUnit.MICROSECONDS.toNanos(50));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+        timer.record(TimeUnit.SECONDS.toNanos(60));
+
+        assertEquals(4, timer.getCount());
+        assertEquals(60000.0, timer.getMaxMillis(), 0.001);
+        assertEquals(60004.05, timer.getTotalMillis(), 0.001);
+
+        final long[] expected = new long[Timer.BUCKET_BOUNDS.length + 1];
+        expected[0] = 1; // <= 100us
+        expected[2] = 1; // <= 1ms, bounds are inclusive
+        expected[4] = 1; // <= 5ms
+        expected[Timer.BUCKET_BOUNDS.length] = 1;
+        assertArrayEquals(toObjects(expected), toObjects(timer.getBucketCounts()));
+
+        timer.reset();
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.getMaxNanos());
+    }
+
+    @Test
+    public void testListener() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("cas.before", "Before");
+
+        final List<String> added = new ArrayList<String>();
+        registry.addListener(
+                new MetricRegistry.Listener() {
+                    public void metricAdded(Metric metric) {
+                        added.add(metric.getName());
+                    }
+                });
+        registry.counter("cas.after", "After");
+        registry.counter("cas.after", "After");
+
+        assertEquals(2, added.size());
+        assertEquals("cas.before", added.get(0));
+        assertEquals("cas.after", added.get(1));
+    }
+
+    private static Long[] toObjects(long[] values) {
+        final Long[] objects = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            objects[i] = values[i];
+        }
+        return objects;
+    }
+}
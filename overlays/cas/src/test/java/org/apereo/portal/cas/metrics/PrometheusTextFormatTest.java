@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.junit.Test;
+
+/**
+ */
+public class PrometheusTextFormatTest {
+
+    @Test
+    public void testWrite() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("cas.userPasswordDao.unknownUser", "Unknown users").add(3);
+        final Timer md5 =
+                registry.timer("cas.authentication.hash.verify", "scheme=\"MD5\"", "Verify time");
+        md5.record(TimeUnit.MILLISECONDS.toNanos(2));
+        registry.timer("cas.authentication.hash.verify", "scheme=\"SHA256\"", "Verify time");
+        registry.gauge(
+                "cas.authentication.executor.queue",
+                "Queued",
+                new LongSupplier() {
+                    public long getAsLong() {
+                        return 7;
+                    }
+                });
+
+        final StringWriter writer = new StringWriter();
+        PrometheusTextFormat.write(registry, writer);
+        final String text = writer.toString();
+
+        // One header per family
+        final String family = "cas_authentication_hash_verify_seconds";
+        assertEquals(
+                text.indexOf("# TYPE " + family + " histogram"),
+                text.lastIndexOf("# TYPE " + family + " histogram"));
+        assertTrue(text.contains(family + "_bucket{scheme=\"MD5\",le=\"0.001\"} 0\n"));
+        assertTrue(text.contains(family + "_bucket{scheme=\"MD5\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains(family + "_bucket{scheme=\"MD5\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains(family + "_sum{scheme=\"MD5\"} 0.002\n"));
+        assertTrue(text.contains(family + "_count{scheme=\"SHA256\"} 0\n"));
+        assertTrue(text.contains(family + "_max{scheme=\"MD5\"} 0.002\n"));
+        assertTrue(text.contains("# TYPE cas_userPasswordDao_unknownUser_total counter\n"));
+        assertTrue(text.contains("cas_userPasswordDao_unknownUser_total 3\n"));
+        assertTrue(text.contains("# TYPE cas_authentication_executor_queue gauge\n"));
+        assertTrue(text.contains("cas_authentication_executor_queue 7\n"));
+    }
+}
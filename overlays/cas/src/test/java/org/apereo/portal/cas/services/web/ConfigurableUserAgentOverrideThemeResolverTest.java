@@ -0,0 +1,195 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services.web;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.apereo.portal.cas.metrics.MetricRegistry;
+import org.easymock.EasyMock;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.jasig.cas.web.support.ArgumentExtractor;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class ConfigurableUserAgentOverrideThemeResolverTest {
+    private static final String IPHONE =
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 10_3 like Mac OS X) AppleWebKit/603.1.30";
+    private static final String ANDROID =
+            "Mozilla/5.0 (Linux; Android 7.0; SM-G930V Build/NRD90M) AppleWebKit/537.36";
+    private static final String DESKTOP =
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 Chrome/58.0";
+
+    private ConfigurableUserAgentOverrideThemeResolver themeResolver;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        final Map<String, String> browserMappings = new LinkedHashMap<String, String>();
+        browserMappings.put(".*(iPhone|iPod).*", "cas-theme-iphone");
+        browserMappings.put(".*(?i:android).*", "cas-theme-android");
+        browserMappings.put(".*Mobile.*", "cas-theme-mobile");
+
+        final Map<String, Map<String, String>> overrides =
+                new HashMap<String, Map<String, String>>();
+        overrides.put("cas-theme-default", browserMappings);
+
+        this.metricRegistry = new MetricRegistry();
+        this.themeResolver = new ConfigurableUserAgentOverrideThemeResolver();
+        this.themeResolver.setMetricRegistry(this.metricRegistry);
+        this.themeResolver.setDefaultThemeName("cas-theme-default");
+        this.themeResolver.setOverrides(overrides);
+    }
+
+    @Test
+    public void testOverrides() {
+        assertEquals("cas-theme-iphone", resolve(IPHONE));
+        assertEquals("cas-theme-android", resolve(ANDROID));
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+    }
+
+    @Test
+    public void testMissingUserAgent() {
+        assertEquals("cas-theme-default", resolve(null));
+    }
+
+    @Test
+    public void testCombinedPatterns() {
+        this.themeResolver.setCombinePatterns(true);
+
+        assertEquals("cas-theme-iphone", resolve(IPHONE));
+        assertEquals("cas-theme-android", resolve(ANDROID));
+        assertEquals("cas-theme-mobile", resolve("Opera Mobile"));
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+    }
+
+    @Test
+    public void testResolvedThemesAreCached() {
+        assertEquals("cas-theme-iphone", resolve(IPHONE));
+        assertEquals("cas-theme-iphone", resolve(IPHONE));
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+
+        assertEquals(2, this.themeResolver.getMatchCount());
+        assertEquals(2, this.themeResolver.getCacheHits());
+        assertEquals(2, this.themeResolver.getCacheMisses());
+        assertEquals(0.5, this.themeResolver.getCacheHitRatio(), 0.001);
+
+        // Exported through the metric registry too
+        assertEquals(
+                2, this.metricRegistry.counter("cas.theme.userAgent.cache.hits", "").getCount());
+        assertEquals(
+                2, this.metricRegistry.counter("cas.theme.userAgent.cache.misses", "").getCount());
+        assertEquals(2, this.metricRegistry.timer("cas.theme.userAgent.match", "").getCount());
+    }
+
+    @Test
+    public void testCacheDisabled() {
+        this.themeResolver.setUserAgentCacheSize(0);
+
+        assertEquals("cas-theme-iphone", resolve(IPHONE));
+        assertEquals("cas-theme-iphone", resolve(IPHONE));
+
+        assertEquals(2, this.themeResolver.getMatchCount());
+        assertEquals(0, this.themeResolver.getCacheHits());
+    }
+
+    @Test
+    public void testServiceThemesAreCached() {
+        final Service service = createService("https://portal.example.edu/uPortal/Login");
+        final RegisteredService registeredService = createRegisteredService(1, "cas-theme-portal");
+        final ServicesManager servicesManager = EasyMock.createMock(ServicesManager.class);
+        EasyMock.expect(servicesManager.findServiceBy(service)).andReturn(registeredService).once();
+        EasyMock.expect(servicesManager.getAllServices())
+                .andReturn(Collections.singletonList(registeredService))
+                .anyTimes();
+        EasyMock.replay(servicesManager);
+
+        useService(servicesManager, service);
+
+        assertEquals("cas-theme-portal", resolve(DESKTOP));
+        assertEquals("cas-theme-portal", resolve(DESKTOP));
+
+        EasyMock.verify(servicesManager);
+        assertEquals(1, this.themeResolver.getServiceThemeCacheHits());
+    }
+
+    @Test
+    public void testServiceThemesInvalidatedWhenServicesChange() {
+        final Service service = createService("https://portal.example.edu/uPortal/Login");
+        final List<RegisteredService> registeredServices = new ArrayList<RegisteredService>();
+        registeredServices.add(createRegisteredService(1, "cas-theme-portal"));
+        final ServicesManager servicesManager = EasyMock.createMock(ServicesManager.class);
+        EasyMock.expect(servicesManager.findServiceBy(service)).andReturn(null).times(2);
+        EasyMock.expect(servicesManager.getAllServices()).andReturn(registeredServices).anyTimes();
+        EasyMock.replay(servicesManager);
+
+        useService(servicesManager, service);
+        this.themeResolver.setServicesReloadCheckIntervalMillis(0);
+
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+
+        registeredServices.add(createRegisteredService(2, "cas-theme-other"));
+        assertEquals("cas-theme-default", resolve(DESKTOP));
+
+        EasyMock.verify(servicesManager);
+    }
+
+    private void useService(ServicesManager servicesManager, final Service service) {
+        this.themeResolver.setServicesManager(servicesManager);
+        this.themeResolver.setArgumentExtractors(
+                Collections.<ArgumentExtractor>singletonList(
+                        new ArgumentExtractor() {
+                            public Service extractService(HttpServletRequest request) {
+                                return service;
+                            }
+                        }));
+    }
+
+    private static Service createService(String id) {
+        final Service service = EasyMock.createNiceMock(Service.class);
+        EasyMock.expect(service.getId()).andReturn(id).anyTimes();
+        EasyMock.replay(service);
+        return service;
+    }
+
+    private static RegisteredService createRegisteredService(long id, String theme) {
+        final RegisteredService registeredService =
+                EasyMock.createNiceMock(RegisteredService.class);
+        EasyMock.expect(registeredService.getId()).andReturn(id).anyTimes();
+        EasyMock.expect(registeredService.getTheme()).andReturn(theme).anyTimes();
+        EasyMock.replay(registeredService);
+        return registeredService;
+    }
+
+    private String resolve(String userAgent) {
+        final HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getHeader("User-Agent")).andReturn(userAgent).anyTimes();
+        EasyMock.replay(request);
+
+        return this.themeResolver.resolveThemeName(request);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ */
+public class BoundedExpiringCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        final BoundedExpiringCache<String, String> cache =
+                new BoundedExpiringCache<String, String>(2, 0);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+
+        cache.put("c", "3");
+
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiry() {
+        final TestCache cache = new TestCache(10, 1000);
+        cache.put("a", "1");
+        cache.now = 999;
+        assertEquals("1", cache.get("a"));
+
+        cache.now = 1000;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testPurgeExpired() {
+        final TestCache cache = new TestCache(10, 1000);
+        cache.put("a", "1");
+        cache.now = 500;
+        cache.put("b", "2");
+
+        cache.now = 1200;
+        cache.purgeExpired();
+
+        assertEquals(1, cache.size());
+        assertEquals("2", cache.get("b"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new BoundedExpiringCache<String, String>(0, 0);
+    }
+
+    private static class TestCache extends BoundedExpiringCache<String, String> {
+        private long now = 0;
+
+        TestCache(int maxSize, long timeToLiveMillis) {
+            super(maxSize, timeToLiveMillis);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.start.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Statistics;
+
+/**
+ * Statistics of an ehcache region, read from the cache on every access. The cache must have its
+ * statistics enabled.
+ *
+ */
+public class CacheRegionStatistics implements CacheRegionStatisticsMBean {
+
+    private final Ehcache cache;
+
+    public CacheRegionStatistics(Ehcache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public long getHits() {
+        return this.cache.getStatistics().getCacheHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return this.cache.getStatistics().getCacheMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final Statistics statistics = this.cache.getStatistics();
+        final long reads = statistics.getCacheHits() + statistics.getCacheMisses();
+        return reads == 0 ? 0.0 : (double) statistics.getCacheHits() / reads;
+    }
+
+    @Override
+    public long getEvictions() {
+        return this.cache.getStatistics().getEvictionCount();
+    }
+
+    @Override
+    public long getHeapEntries() {
+        return this.cache.getStatistics().getMemoryStoreObjectCount();
+    }
+
+    @Override
+    public long getOffHeapEntries() {
+        return this.cache.getStatistics().getOffHeapStoreObjectCount();
+    }
+
+    @Override
+    public long getDiskEntries() {
+        return this.cache.getStatistics().getDiskStoreObjectCount();
+    }
+
+    @Override
+    public long getMaxEntriesLocalHeap() {
+        return this.cache.getCacheConfiguration().getMaxEntriesLocalHeap();
+    }
+
+    @Override
+    public long getTimeToLiveSeconds() {
+        return this.cache.getCacheConfiguration().getTimeToLiveSeconds();
+    }
+
+    @Override
+    public long getTimeToIdleSeconds() {
+        return this.cache.getCacheConfiguration().getTimeToIdleSeconds();
+    }
+
+    @Override
+    public void clearStatistics() {
+        this.cache.clearStatistics();
+    }
+}
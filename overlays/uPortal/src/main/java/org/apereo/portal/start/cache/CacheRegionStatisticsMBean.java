@@ -0,0 +1,44 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.start.cache;
+
+/**
+ * JMX view of the statistics of an ehcache region.
+ *
+ */
+public interface CacheRegionStatisticsMBean {
+    public long getHits();
+
+    public long getMisses();
+
+    /** @return hits as a fraction of all reads, 0 before the first read */
+    public double getHitRatio();
+
+    public long getEvictions();
+
+    public long getHeapEntries();
+
+    public long getOffHeapEntries();
+
+    public long getDiskEntries();
+
+    public long getMaxEntriesLocalHeap();
+
+    public long getTimeToLiveSeconds();
+
+    public long getTimeToIdleSeconds();
+
+    public void clearStatistics();
+}
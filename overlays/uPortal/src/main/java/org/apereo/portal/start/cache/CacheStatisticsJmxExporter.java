@@ -0,0 +1,157 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.start.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.event.CacheManagerEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enables the statistics of every region of a cache manager, including regions added later, and
+ * registers them with the platform MBean server under <code>
+ * org.apereo.portal.cache:type=CacheRegion,name=...</code>. Defined as a Spring bean with <code>
+ * init-method="start"</code> and <code>destroy-method="stop"</code>.
+ *
+ */
+public class CacheStatisticsJmxExporter implements CacheManagerEventListener {
+    /** Default domain of the exported MBeans */
+    public static final String DEFAULT_DOMAIN = "org.apereo.portal.cache";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<String, ObjectName> registered = new ConcurrentHashMap<>();
+
+    private final CacheManager cacheManager;
+    private MBeanServer mBeanServer;
+    private String domain = DEFAULT_DOMAIN;
+    private boolean enabled = true;
+    private volatile Status status = Status.STATUS_UNINITIALISED;
+
+    /** @param cacheManager the cache manager whose regions to export */
+    public CacheStatisticsJmxExporter(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /** @param mBeanServer the server to register with, defaults to the platform MBean server */
+    public void setMBeanServer(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /** @param domain domain of the exported MBeans */
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * @param enabled false to leave the statistics of the regions off, which saves updating them on
+     *     every cache access
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void start() {
+        if (!this.enabled) {
+            return;
+        }
+        if (this.mBeanServer == null) {
+            this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        }
+        this.cacheManager.getCacheManagerEventListenerRegistry().registerListener(this);
+        for (final String cacheName : this.cacheManager.getCacheNames()) {
+            notifyCacheAdded(cacheName);
+        }
+        this.status = Status.STATUS_ALIVE;
+    }
+
+    public void stop() {
+        if (this.status != Status.STATUS_ALIVE) {
+            return;
+        }
+        this.cacheManager.getCacheManagerEventListenerRegistry().unregisterListener(this);
+        for (final String cacheName : this.registered.keySet()) {
+            notifyCacheRemoved(cacheName);
+        }
+        this.status = Status.STATUS_SHUTDOWN;
+    }
+
+    /* (non-Javadoc)
+     * @see net.sf.ehcache.event.CacheManagerEventListener#notifyCacheAdded(java.lang.String)
+     */
+    @Override
+    public void notifyCacheAdded(String cacheName) {
+        final Ehcache cache = this.cacheManager.getEhcache(cacheName);
+        if (cache == null || this.registered.containsKey(cacheName)) {
+            return;
+        }
+        try {
+            cache.setStatisticsEnabled(true);
+            final ObjectName objectName = getObjectName(cacheName);
+            this.mBeanServer.registerMBean(new CacheRegionStatistics(cache), objectName);
+            this.registered.put(cacheName, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // Already exported, e.g. by another exporter for the same cache manager
+        } catch (JMException e) {
+            this.logger.warn("Failed to export statistics of cache {} to JMX", cacheName, e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see net.sf.ehcache.event.CacheManagerEventListener#notifyCacheRemoved(java.lang.String)
+     */
+    @Override
+    public void notifyCacheRemoved(String cacheName) {
+        final ObjectName objectName = this.registered.remove(cacheName);
+        if (objectName == null) {
+            return;
+        }
+        try {
+            this.mBeanServer.unregisterMBean(objectName);
+        } catch (JMException e) {
+            this.logger.warn("Failed to unregister cache statistics MBean {}", objectName, e);
+        }
+    }
+
+    @Override
+    public void init() throws CacheException {
+        // Registered by start()
+    }
+
+    @Override
+    public Status getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public void dispose() throws CacheException {
+        stop();
+    }
+
+    ObjectName getObjectName(String cacheName) throws JMException {
+        return new ObjectName(
+                this.domain + ":type=CacheRegion,name=" + ObjectName.quote(cacheName));
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.start.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import net.sf.ehcache.config.generator.ConfigurationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.cache.ehcache.EhCacheManagerFactoryBean;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Retunes the ehcache regions of the portal from properties, before the cache manager is created.
+ * Properties are named <code>cache.tuning.{region}.{setting}</code>, where the region is the name
+ * of a cache, or a prefix of names followed by <code>*</code>. Settings for a cache name win over
+ * settings for a prefix, and settings for a longer prefix over those for a shorter one. The
+ * settings are:
+ *
+ * <ul>
+ *   <li><code>maxEntriesLocalHeap</code> - Number of entries kept on the heap
+ *   <li><code>timeToLiveSeconds</code> - Seconds after which an entry expires
+ *   <li><code>timeToIdleSeconds</code> - Seconds without a read after which an entry expires
+ *   <li><code>maxBytesLocalOffHeap</code> - Size of an off-heap tier (e.g. 256m) that entries
+ *       evicted from the heap move to. Only BigMemory has an off-heap store, so without it on the
+ *       classpath the setting is ignored with a warning.
+ *   <li><code>maxBytesLocalDisk</code> - Size of a tier in a temporary file (in the diskStore
+ *       directory) that entries evicted from the heap move to.
+ * </ul>
+ *
+ * <p>Only serializable entries can move to either tier.
+ *
+ * <p>The cache manager bean reads its configuration once, when it is created, and caches keep their
+ * tiers for life; so the configuration file of every {@link EhCacheManagerFactoryBean} is replaced
+ * with a tuned copy while bean definitions are post-processed. Without tuning properties nothing is
+ * replaced.
+ */
+public class CacheTuningConfigurer implements BeanFactoryPostProcessor, Ordered {
+    /** Prefix of the tuning properties */
+    public static final String PROPERTY_PREFIX = "cache.tuning.";
+
+    static final String MAX_ENTRIES_LOCAL_HEAP = "maxEntriesLocalHeap";
+    static final String TIME_TO_LIVE_SECONDS = "timeToLiveSeconds";
+    static final String TIME_TO_IDLE_SECONDS = "timeToIdleSeconds";
+    static final String MAX_BYTES_LOCAL_OFF_HEAP = "maxBytesLocalOffHeap";
+    static final String MAX_BYTES_LOCAL_DISK = "maxBytesLocalDisk";
+
+    private static final Set<String> SETTINGS =
+            new HashSet<>(
+                    Arrays.asList(
+                            MAX_ENTRIES_LOCAL_HEAP,
+                            TIME_TO_LIVE_SECONDS,
+                            TIME_TO_IDLE_SECONDS,
+                            MAX_BYTES_LOCAL_OFF_HEAP,
+                            MAX_BYTES_LOCAL_DISK));
+
+    /** Class of the off-heap store, only present with BigMemory */
+    private static final String OFF_HEAP_STORE_CLASS = "net.sf.ehcache.store.offheap.OffHeapStore";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Whether BigMemory is on the classpath */
+    boolean offHeapAvailable =
+            ClassUtils.isPresent(
+                    OFF_HEAP_STORE_CLASS, CacheTuningConfigurer.class.getClassLoader());
+
+    private List<String> locations = Collections.emptyList();
+
+    /**
+     * @param locations Properties files to read the tuning properties from, later files override
+     *     earlier ones; files that do not exist are ignored
+     */
+    public void setLocations(List<String> locations) {
+        this.locations = locations;
+    }
+
+    @Override
+    public int getOrder() {
+        // After the placeholder configurers, so configLocation values are resolved
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        final List<RegionSettings> regions = readSettings(loadProperties(beanFactory));
+        if (regions.isEmpty()) {
+            return;
+        }
+
+        final DefaultResourceLoader resourceLoader =
+                new DefaultResourceLoader(beanFactory.getBeanClassLoader());
+        for (final String beanName : beanFactory.getBeanDefinitionNames()) {
+            final BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+            if (!isCacheManagerFactory(definition, beanFactory.getBeanClassLoader())) {
+                continue;
+            }
+            final MutablePropertyValues values = definition.getPropertyValues();
+            final PropertyValue configLocation = values.getPropertyValue("configLocation");
+            if (configLocation == null) {
+                this.logger.warn("Cache manager {} has no configLocation to tune", beanName);
+                continue;
+            }
+            final String location = locationOf(configLocation.getValue());
+            final Resource resource = resourceLoader.getResource(location);
+
+            final Configuration configuration;
+            try (InputStream input = resource.getInputStream()) {
+                configuration = ConfigurationFactory.parseConfiguration(input);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read cache configuration " + location, e);
+            }
+            tune(configuration, regions);
+
+            final String text = ConfigurationUtil.generateCacheManagerConfigurationText(configuration);
+            values.addPropertyValue(
+                    "configLocation",
+                    new ByteArrayResource(
+                            text.getBytes(StandardCharsets.UTF_8), "tuned copy of " + location));
+            this.logger.info("Tuned the caches of {} from {} properties", location, PROPERTY_PREFIX);
+        }
+    }
+
+    /** Applies the settings to the caches of the configuration. */
+    void tune(Configuration configuration, List<RegionSettings> regions) {
+        for (final RegionSettings region : regions) {
+            if (region.settings.containsKey(MAX_BYTES_LOCAL_OFF_HEAP) && !this.offHeapAvailable) {
+                this.logger.warn(
+                        "BigMemory is not on the classpath, so there is no off-heap store;  "
+                                + "ignoring {}{}.{} (use {} for a disk tier instead)",
+                        PROPERTY_PREFIX,
+                        region,
+                        MAX_BYTES_LOCAL_OFF_HEAP,
+                        MAX_BYTES_LOCAL_DISK);
+            }
+            boolean matched = false;
+            for (final Map.Entry<String, CacheConfiguration> entry :
+                    configuration.getCacheConfigurations().entrySet()) {
+                if (!region.matches(entry.getKey())) {
+                    continue;
+                }
+                matched = true;
+                final CacheConfiguration cache = entry.getValue();
+                final Properties settings = region.settings;
+
+                if (settings.containsKey(MAX_ENTRIES_LOCAL_HEAP)) {
+                    cache.setMaxEntriesLocalHeap(longSetting(region, MAX_ENTRIES_LOCAL_HEAP));
+                }
+                if (settings.containsKey(TIME_TO_LIVE_SECONDS)) {
+                    cache.setEternal(false);
+                    cache.setTimeToLiveSeconds(longSetting(region, TIME_TO_LIVE_SECONDS));
+                }
+                if (settings.containsKey(TIME_TO_IDLE_SECONDS)) {
+                    cache.setEternal(false);
+                    cache.setTimeToIdleSeconds(longSetting(region, TIME_TO_IDLE_SECONDS));
+                }
+                if (settings.containsKey(MAX_BYTES_LOCAL_OFF_HEAP) && this.offHeapAvailable) {
+                    cache.setOverflowToOffHeap(true);
+                    cache.setMaxBytesLocalOffHeap(
+                            settings.getProperty(MAX_BYTES_LOCAL_OFF_HEAP).trim());
+                }
+                if (settings.containsKey(MAX_BYTES_LOCAL_DISK)) {
+                    if (!cache.isOverflowToDisk() && cache.getPersistenceConfiguration() == null) {
+                        cache.persistence(
+                                new PersistenceConfiguration()
+                                        .strategy(PersistenceConfiguration.Strategy.LOCALTEMPSWAP));
+                    }
+                    cache.setMaxEntriesLocalDisk(0);
+                    cache.setMaxBytesLocalDisk(settings.getProperty(MAX_BYTES_LOCAL_DISK).trim());
+                    if (configuration.getDiskStoreConfiguration() == null) {
+                        configuration.addDiskStore(
+                                new DiskStoreConfiguration().path("java.io.tmpdir"));
+                    }
+                }
+            }
+            if (!matched) {
+                this.logger.warn("No cache matches the {}{} properties", PROPERTY_PREFIX, region);
+            }
+        }
+    }
+
+    /**
+     * @return the settings for each region named in the properties, the least specific regions
+     *     first so that more specific ones are applied over them
+     */
+    static List<RegionSettings> readSettings(Properties properties) {
+        final List<RegionSettings> result = new ArrayList<>();
+        for (final String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(PROPERTY_PREFIX)) {
+                continue;
+            }
+            final String key = name.substring(PROPERTY_PREFIX.length());
+            final int dot = key.lastIndexOf('.');
+            final String setting = key.substring(dot + 1);
+            if (dot <= 0 || !SETTINGS.contains(setting)) {
+                throw new IllegalArgumentException(
+                        "Expected " + PROPERTY_PREFIX + "{region}.{setting}, with one of the "
+                                + "settings " + SETTINGS + ": " + name);
+            }
+            final String pattern = key.substring(0, dot);
+            RegionSettings region = null;
+            for (final RegionSettings candidate : result) {
+                if (candidate.pattern.equals(pattern)) {
+                    region = candidate;
+                }
+            }
+            if (region == null) {
+                region = new RegionSettings(pattern);
+                result.add(region);
+            }
+            region.settings.setProperty(setting, properties.getProperty(name));
+        }
+        result.sort(Comparator.comparingInt(RegionSettings::specificity));
+        return result;
+    }
+
+    private Properties loadProperties(ConfigurableListableBeanFactory beanFactory) {
+        final DefaultResourceLoader resourceLoader =
+                new DefaultResourceLoader(beanFactory.getBeanClassLoader());
+        final Properties properties = new Properties();
+        for (final String location : this.locations) {
+            final Resource resource = resourceLoader.getResource(location);
+            if (!resource.exists()) {
+                continue;
+            }
+            try (InputStream input = resource.getInputStream()) {
+                properties.load(input);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read " + location, e);
+            }
+        }
+        return properties;
+    }
+
+    /** Checks the class named by the definition without creating the bean, or its factory. */
+    private static boolean isCacheManagerFactory(BeanDefinition definition, ClassLoader classLoader) {
+        final String className = definition.getBeanClassName();
+        if (className == null || !ClassUtils.isPresent(className, classLoader)) {
+            return false;
+        }
+        return EhCacheManagerFactoryBean.class.isAssignableFrom(
+                ClassUtils.resolveClassName(className, classLoader));
+    }
+
+    private static String locationOf(Object value) {
+        if (value instanceof TypedStringValue) {
+            return ((TypedStringValue) value).getValue();
+        }
+        return String.valueOf(value);
+    }
+
+    private static long longSetting(RegionSettings region, String setting) {
+        final String value = region.settings.getProperty(setting).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    PROPERTY_PREFIX + region + "." + setting + " is not a number: " + value);
+        }
+    }
+
+    /** Settings of a cache, or of the caches whose names start with a prefix. */
+    static final class RegionSettings {
+        final String pattern;
+        final Properties settings = new Properties();
+
+        RegionSettings(String pattern) {
+            this.pattern = pattern;
+        }
+
+        boolean matches(String cacheName) {
+            if (this.pattern.endsWith("*")) {
+                return cacheName.startsWith(this.pattern.substring(0, this.pattern.length() - 1));
+            }
+            return cacheName.equals(this.pattern);
+        }
+
+        /** @return prefixes by length, then exact names after all of them */
+        int specificity() {
+            return this.pattern.endsWith("*") ? this.pattern.length() : Integer.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return this.pattern;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.start.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import org.apereo.portal.start.cache.CacheTuningConfigurer.RegionSettings;
+import org.junit.Test;
+
+/**
+ */
+public class CacheTuningConfigurerTest {
+    private static final String GROUP_MEMBERS = "org.apereo.portal.groups.GroupMembers";
+    private static final String ENTITY_GROUPS = "org.apereo.portal.groups.EntityGroups";
+    private static final String LAYOUTS = "org.apereo.portal.layout.Layouts";
+    private static final String ALL_GROUPS = "org.apereo.portal.groups.*";
+    private static final String ALL_LAYOUTS = "org.apereo.portal.layout.*";
+
+    private static final String CONFIGURATION =
+            "<ehcache>"
+                    + "<defaultCache maxEntriesLocalHeap=\"100\"/>"
+                    + "<cache name=\""
+                    + GROUP_MEMBERS
+                    + "\" maxEntriesLocalHeap=\"10\" eternal=\"true\"/>"
+                    + "<cache name=\""
+                    + ENTITY_GROUPS
+                    + "\" maxEntriesLocalHeap=\"20\"/>"
+                    + "<cache name=\""
+                    + LAYOUTS
+                    + "\" maxEntriesLocalHeap=\"30\"/>"
+                    + "</ehcache>";
+
+    @Test
+    public void testReadSettings() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + ALL_GROUPS + ".maxEntriesLocalHeap", "500");
+        properties.setProperty("cache.tuning." + ALL_GROUPS + ".timeToLiveSeconds", "900");
+        properties.setProperty("cache.tuning." + LAYOUTS + ".maxBytesLocalDisk", "64m");
+        properties.setProperty("some.other.property", "ignored");
+
+        final List<RegionSettings> regions = CacheTuningConfigurer.readSettings(properties);
+
+        assertEquals(2, regions.size());
+        final RegionSettings groups = regions.get(0);
+        assertEquals(ALL_GROUPS, groups.pattern);
+        assertEquals("500", groups.settings.getProperty("maxEntriesLocalHeap"));
+        assertEquals("900", groups.settings.getProperty("timeToLiveSeconds"));
+        final RegionSettings layouts = regions.get(1);
+        assertEquals(LAYOUTS, layouts.pattern);
+        assertEquals("64m", layouts.settings.getProperty("maxBytesLocalDisk"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadSettingsUnknownSetting() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + ALL_GROUPS + ".maxElements", "500");
+        CacheTuningConfigurer.readSettings(properties);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadSettingsNoRegion() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning.maxEntriesLocalHeap", "500");
+        CacheTuningConfigurer.readSettings(properties);
+    }
+
+    @Test
+    public void testReadSettingsOrder() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + GROUP_MEMBERS + ".maxEntriesLocalHeap", "1");
+        properties.setProperty("cache.tuning." + ALL_GROUPS + ".maxEntriesLocalHeap", "2");
+        properties.setProperty("cache.tuning.org.*.maxEntriesLocalHeap", "3");
+
+        final List<String> patterns = new ArrayList<>();
+        for (final RegionSettings region : CacheTuningConfigurer.readSettings(properties)) {
+            patterns.add(region.pattern);
+        }
+
+        assertEquals("org.*", patterns.get(0));
+        assertEquals(ALL_GROUPS, patterns.get(1));
+        assertEquals(GROUP_MEMBERS, patterns.get(2));
+    }
+
+    @Test
+    public void testTuneMostSpecificWins() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning.org.*.maxEntriesLocalHeap", "1000");
+        properties.setProperty("cache.tuning." + ALL_GROUPS + ".maxEntriesLocalHeap", "2000");
+        properties.setProperty("cache.tuning." + GROUP_MEMBERS + ".maxEntriesLocalHeap", "3000");
+        final Configuration configuration = parse();
+
+        new CacheTuningConfigurer()
+                .tune(configuration, CacheTuningConfigurer.readSettings(properties));
+
+        assertEquals(3000, cache(configuration, GROUP_MEMBERS).getMaxEntriesLocalHeap());
+        assertEquals(2000, cache(configuration, ENTITY_GROUPS).getMaxEntriesLocalHeap());
+        assertEquals(1000, cache(configuration, LAYOUTS).getMaxEntriesLocalHeap());
+    }
+
+    @Test
+    public void testTuneExpiry() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + GROUP_MEMBERS + ".timeToLiveSeconds", "900");
+        properties.setProperty("cache.tuning." + GROUP_MEMBERS + ".timeToIdleSeconds", "300");
+        final Configuration configuration = parse();
+
+        new CacheTuningConfigurer()
+                .tune(configuration, CacheTuningConfigurer.readSettings(properties));
+
+        final CacheConfiguration cache = cache(configuration, GROUP_MEMBERS);
+        assertFalse(cache.isEternal());
+        assertEquals(900, cache.getTimeToLiveSeconds());
+        assertEquals(300, cache.getTimeToIdleSeconds());
+        // Untouched caches keep their settings
+        assertEquals(20, cache(configuration, ENTITY_GROUPS).getMaxEntriesLocalHeap());
+    }
+
+    @Test
+    public void testTuneDisk() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + ALL_LAYOUTS + ".maxBytesLocalDisk", "64m");
+        final Configuration configuration = parse();
+
+        new CacheTuningConfigurer()
+                .tune(configuration, CacheTuningConfigurer.readSettings(properties));
+
+        final CacheConfiguration cache = cache(configuration, LAYOUTS);
+        assertEquals(64L * 1024 * 1024, cache.getMaxBytesLocalDisk());
+        assertEquals(
+                PersistenceConfiguration.Strategy.LOCALTEMPSWAP,
+                cache.getPersistenceConfiguration().getStrategy());
+        assertNotNull(configuration.getDiskStoreConfiguration());
+    }
+
+    @Test
+    public void testTuneOffHeapWithoutBigMemory() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + ALL_LAYOUTS + ".maxBytesLocalOffHeap", "64m");
+        final Configuration configuration = parse();
+        final CacheTuningConfigurer configurer = new CacheTuningConfigurer();
+        configurer.offHeapAvailable = false;
+
+        configurer.tune(configuration, CacheTuningConfigurer.readSettings(properties));
+
+        // Ignored, rather than moved to a tier nobody asked for
+        final CacheConfiguration cache = cache(configuration, LAYOUTS);
+        assertFalse(cache.isOverflowToOffHeap());
+        assertEquals(0, cache.getMaxBytesLocalOffHeap());
+        assertEquals(0, cache.getMaxBytesLocalDisk());
+        assertNull(cache.getPersistenceConfiguration());
+    }
+
+    @Test
+    public void testTuneOffHeapWithBigMemory() {
+        final Properties properties = new Properties();
+        properties.setProperty("cache.tuning." + ALL_LAYOUTS + ".maxBytesLocalOffHeap", "64m");
+        final Configuration configuration = parse();
+        final CacheTuningConfigurer configurer = new CacheTuningConfigurer();
+        configurer.offHeapAvailable = true;
+
+        configurer.tune(configuration, CacheTuningConfigurer.readSettings(properties));
+
+        final CacheConfiguration cache = cache(configuration, LAYOUTS);
+        assertTrue(cache.isOverflowToOffHeap());
+        assertEquals(64L * 1024 * 1024, cache.getMaxBytesLocalOffHeap());
+    }
+
+    private static Configuration parse() {
+        return ConfigurationFactory.parseConfiguration(
+                new ByteArrayInputStream(CONFIGURATION.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static CacheConfiguration cache(Configuration configuration, String name) {
+        final CacheConfiguration cache = configuration.getCacheConfigurations().get(name);
+        assertNotNull(name, cache);
+        return cache;
+    }
+}